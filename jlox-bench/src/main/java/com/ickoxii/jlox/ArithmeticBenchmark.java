@@ -0,0 +1,62 @@
+package com.ickoxii.jlox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code Interpreter.visitBinaryExpr} on literal operands, so the
+ * numbers are dominated by operator dispatch and boxing.
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArithmeticBenchmark {
+  private Interpreter interpreter;
+  private Expr.Binary add;
+  private Expr.Binary compare;
+  private Expr.Binary concat;
+  private Expr.Binary polynomial;
+
+  @Setup
+  public void setup() {
+    interpreter = Benchmarks.interpreter();
+    add = (Expr.Binary)Benchmarks.expression("1 + 2;");
+    compare = (Expr.Binary)Benchmarks.expression("1.5 < 2.5;");
+    concat = (Expr.Binary)Benchmarks.expression("\"foo\" + \"bar\";");
+    polynomial = (Expr.Binary)Benchmarks.expression(
+        "3 * 4 * 4 + 2 * 4 - 7 / 2;");
+  }
+
+  @Benchmark
+  public Object add() {
+    return interpreter.visitBinaryExpr(add);
+  }
+
+  @Benchmark
+  public Object compare() {
+    return interpreter.visitBinaryExpr(compare);
+  }
+
+  @Benchmark
+  public Object concat() {
+    return interpreter.visitBinaryExpr(concat);
+  }
+
+  @Benchmark
+  public Object polynomial() {
+    return interpreter.visitBinaryExpr(polynomial);
+  }
+}
@@ -0,0 +1,282 @@
+package com.ickoxii.jlox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the Lox benchmark programs ({@code lox/*-benchmark.lox}) and
+ * fails if any got slower than a stored baseline.
+ *
+ * Each script is compiled once, run a few times to warm up the JIT,
+ * then timed over a number of runs, each in a fresh interpreter. The
+ * median and percentiles go to a JSON file. A script regresses when
+ * its median is more than {@code --threshold} percent above the
+ * baseline median; the process then exits with status 1.
+ *
+ * Baselines are only meaningful on the machine that recorded them.
+ * Pass {@code --update-baseline true} to re-record one. A missing
+ * baseline, or a script the baseline has no median for, fails the run
+ * too, since otherwise the gate would pass without checking anything;
+ * {@code --allow-missing-baseline true} lets such scripts through.
+ *
+ * {@code fib-benchmark.lox} is skipped unless named on the command
+ * line, since a single run of it takes far longer than the rest of
+ * the suite together.
+ * */
+public final class BenchmarkSuite {
+  private static final List<String> SLOW = List.of("fib-benchmark.lox");
+
+  private Path loxDir = Benchmarks.LOX_DIR;
+  private Path baseline = Paths.get("baseline.json");
+  private Path output = Paths.get("target/suite.json");
+  private int warmup = 5;
+  private int runs = 15;
+  private double threshold = 10;
+  private boolean updateBaseline = false;
+  private boolean allowMissing = false;
+  private final List<String> scripts = new ArrayList<>();
+
+  /**
+   * Timings of one script, in milliseconds.
+   * */
+  static class Result {
+    final String script;
+    final double[] times;
+
+    Result(String script, double[] times) {
+      this.script = script;
+      this.times = times.clone();
+      Arrays.sort(this.times);
+    }
+
+    /**
+     * Nearest-rank percentile.
+     * */
+    double percentile(double p) {
+      int rank = (int)Math.ceil(p / 100 * times.length);
+      return times[Math.max(0, rank - 1)];
+    }
+
+    double median() {
+      int middle = times.length / 2;
+      if (times.length % 2 == 1) return times[middle];
+      return (times[middle - 1] + times[middle]) / 2;
+    }
+
+    double mean() {
+      double sum = 0;
+      for (double time : times) sum += time;
+      return sum / times.length;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    BenchmarkSuite suite = new BenchmarkSuite();
+    suite.parse(args);
+    System.exit(suite.run());
+  }
+
+  private void parse(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.isEmpty()) continue;
+      if (!arg.startsWith("--")) {
+        scripts.add(arg);
+        continue;
+      }
+
+      if (i + 1 >= args.length) usage();
+      String value = args[++i];
+      try {
+        switch (arg) {
+          case "--lox": loxDir = Paths.get(value); break;
+          case "--baseline": baseline = Paths.get(value); break;
+          case "--out": output = Paths.get(value); break;
+          case "--warmup": warmup = Integer.parseInt(value); break;
+          case "--runs": runs = Integer.parseInt(value); break;
+          case "--threshold": threshold = Double.parseDouble(value); break;
+          case "--update-baseline":
+            updateBaseline = Boolean.parseBoolean(value);
+            break;
+          case "--allow-missing-baseline":
+            allowMissing = Boolean.parseBoolean(value);
+            break;
+          default: usage();
+        }
+      } catch (NumberFormatException e) {
+        usage();
+      }
+    }
+
+    if (warmup < 0 || runs < 1 || threshold < 0) usage();
+  }
+
+  private static void usage() {
+    System.out.println("Usage: BenchmarkSuite [--lox <dir>] [--baseline <file>]"
+        + " [--out <file>]");
+    System.out.println("       [--warmup <n>] [--runs <n>] [--threshold <percent>]"
+        + " [--update-baseline <true|false>]");
+    System.out.println("       [--allow-missing-baseline <true|false>]"
+        + " [script...]");
+    System.exit(64);
+  }
+
+  private int run() throws IOException {
+    if (scripts.isEmpty()) {
+      try (Stream<Path> files = Files.list(loxDir)) {
+        scripts.addAll(files.map(p -> p.getFileName().toString())
+            .filter(name -> name.endsWith("-benchmark.lox"))
+            .filter(name -> !SLOW.contains(name))
+            .sorted()
+            .collect(Collectors.toList()));
+      }
+    }
+
+    List<Result> results = new ArrayList<>();
+    for (String script : scripts) {
+      results.add(measure(script));
+    }
+
+    String json = toJson(results);
+    if (output.getParent() != null) Files.createDirectories(output.getParent());
+    Files.writeString(output, json);
+
+    if (updateBaseline) {
+      Files.writeString(baseline, json);
+      report(results, Map.of());
+      System.out.println("Baseline written to " + baseline + ".");
+      return 0;
+    }
+
+    Map<String, Double> expected = Map.of();
+    if (Files.isRegularFile(baseline)) {
+      expected = readMedians(Files.readString(baseline));
+    } else {
+      System.out.println("No baseline at " + baseline + ".");
+    }
+
+    int regressions = report(results, expected);
+    int failed = 0;
+    if (regressions > 0) {
+      System.out.printf("%d of %d benchmarks regressed by more than %.0f%%.%n",
+          regressions, results.size(), threshold);
+      failed = 1;
+    }
+
+    int missing = 0;
+    for (Result result : results) {
+      if (!expected.containsKey(result.script)) missing++;
+    }
+    if (missing > 0 && !allowMissing) {
+      System.out.printf("%d of %d benchmarks have no baseline. Record one with"
+          + " --update-baseline true, or pass --allow-missing-baseline true.%n",
+          missing, results.size());
+      failed = 1;
+    }
+    return failed;
+  }
+
+  private Result measure(String script) throws IOException {
+    List<Stmt> statements = Benchmarks.compile(
+        new String(Files.readAllBytes(loxDir.resolve(script))));
+
+    for (int i = 0; i < warmup; i++) {
+      Benchmarks.interpreter().interpret(statements);
+    }
+
+    double[] times = new double[runs];
+    for (int i = 0; i < runs; i++) {
+      // Don't bill one run for the garbage left by the previous one.
+      System.gc();
+      Interpreter interpreter = Benchmarks.interpreter();
+      long start = System.nanoTime();
+      interpreter.interpret(statements);
+      times[i] = (System.nanoTime() - start) / 1e6;
+    }
+    return new Result(script, times);
+  }
+
+  /**
+   * Prints a table of the results against the baseline and returns the
+   * number of regressions.
+   * */
+  private int report(List<Result> results, Map<String, Double> expected) {
+    int regressions = 0;
+    System.out.printf("%-32s %10s %10s %10s %10s %8s%n",
+        "script", "median ms", "p90 ms", "p99 ms", "base ms", "change");
+
+    for (Result result : results) {
+      Double base = expected.get(result.script);
+      String change = "";
+      String flag = "";
+      if (base != null) {
+        double percent = (result.median() / base - 1) * 100;
+        change = String.format(Locale.ROOT, "%+.1f%%", percent);
+        if (percent > threshold) {
+          regressions++;
+          flag = "  REGRESSION";
+        }
+      }
+
+      System.out.printf(Locale.ROOT, "%-32s %10.2f %10.2f %10.2f %10s %8s%s%n",
+          result.script, result.median(), result.percentile(90),
+          result.percentile(99),
+          base == null ? "-" : String.format(Locale.ROOT, "%.2f", base),
+          change, flag);
+    }
+    return regressions;
+  }
+
+  private String toJson(List<Result> results) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n")
+        .append("  \"java\": \"").append(System.getProperty("java.version"))
+        .append("\",\n")
+        .append("  \"warmup\": ").append(warmup).append(",\n")
+        .append("  \"runs\": ").append(runs).append(",\n")
+        .append("  \"results\": [\n");
+
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      json.append(String.format(Locale.ROOT,
+          "    {\"script\": \"%s\", \"median_ms\": %.3f, \"p90_ms\": %.3f,"
+          + " \"p99_ms\": %.3f, \"mean_ms\": %.3f, \"min_ms\": %.3f,"
+          + " \"max_ms\": %.3f}",
+          result.script, result.median(), result.percentile(90),
+          result.percentile(99), result.mean(), result.times[0],
+          result.times[result.times.length - 1]));
+      json.append(i + 1 < results.size() ? ",\n" : "\n");
+    }
+
+    return json.append("  ]\n}\n").toString();
+  }
+
+  /**
+   * Pulls the median of each script out of a file written by
+   * {@link #toJson}. This only understands that one layout, with one
+   * result per line, which is all it is ever given.
+   * */
+  static Map<String, Double> readMedians(String json) {
+    Pattern result = Pattern.compile(
+        "\"script\": \"([^\"]+)\", \"median_ms\": ([0-9.eE+-]+)");
+
+    Map<String, Double> medians = new HashMap<>();
+    Matcher matcher = result.matcher(json);
+    while (matcher.find()) {
+      medians.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+    }
+    return medians;
+  }
+}
@@ -0,0 +1,93 @@
+package com.ickoxii.jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Shared setup for the benchmarks. They live in the interpreter's
+ * package so they can drive its package-private classes directly.
+ * */
+final class Benchmarks {
+  /**
+   * Where the Lox sample programs are. Override with
+   * {@code -Djlox.lox=<dir>} when not running from this directory.
+   * */
+  static final Path LOX_DIR =
+      Paths.get(System.getProperty("jlox.lox", "../jlox/lox"));
+
+  private Benchmarks() {}
+
+  /**
+   * An interpreter whose {@code print} output is thrown away.
+   * */
+  static Interpreter interpreter() {
+    return new Interpreter(new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  /**
+   * Scan, parse and resolve source that is known to be valid.
+   * */
+  static List<Stmt> compile(String source) {
+    return LoxEngine.compile(source, (line, where, message) -> {
+      throw new IllegalStateException(
+          ErrorReporter.format(line, where, message));
+    });
+  }
+
+  /**
+   * The resolved expression of a single expression statement, to be
+   * evaluated directly against an interpreter's globals.
+   * */
+  static Expr expression(String source) {
+    List<Stmt> statements = compile(source);
+    return ((Stmt.Expression)statements.get(statements.size() - 1)).expression;
+  }
+
+  static String read(String script) throws IOException {
+    byte[] bytes = Files.readAllBytes(LOX_DIR.resolve(script));
+    return new String(bytes, Charset.defaultCharset());
+  }
+
+  /**
+   * A program made of {@code units} copies of a chunk that uses most of
+   * the grammar: a class hierarchy, closures, loops and the usual
+   * operators. Names are numbered so the copies don't collide.
+   * */
+  static String generate(int units) {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < units; i++) {
+      source.append("class Shape").append(i).append(" {\n")
+            .append("  init(w, h) { this.w = w; this.h = h; }\n")
+            .append("  area() { return this.w * this.h; }\n")
+            .append("}\n")
+            .append("class Square").append(i).append(" < Shape").append(i)
+            .append(" {\n")
+            .append("  init(s) { super.init(s, s); }\n")
+            .append("  describe() { return \"square \" + \"of area\"; }\n")
+            .append("}\n")
+            .append("fun counter").append(i).append("(start) {\n")
+            .append("  var n = start;\n")
+            .append("  fun next() { n = n + 1; return n; }\n")
+            .append("  return next;\n")
+            .append("}\n")
+            .append("var total").append(i).append(" = 0;\n")
+            .append("for (var j = 0; j < 10 and !false; j = j + 1) {\n")
+            .append("  if (j >= 5 or j == -1) total").append(i)
+            .append(" = total").append(i).append(" + j / 2.5;\n")
+            .append("  else { total").append(i).append(" = total").append(i)
+            .append(" - (j * 3); }\n")
+            .append("}\n")
+            .append("while (total").append(i).append(" != nil and total")
+            .append(i).append(" > 100) total").append(i).append(" = total")
+            .append(i).append(" / 2;\n")
+            .append("// ").append(i).append(": a comment the scanner skips\n");
+    }
+    return source.toString();
+  }
+}
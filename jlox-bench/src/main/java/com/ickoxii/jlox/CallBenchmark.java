@@ -0,0 +1,82 @@
+package com.ickoxii.jlox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code Interpreter.visitCallExpr}: argument evaluation, the arity
+ * check, a fresh environment per call and, for returning functions,
+ * unwinding with {@link Return}.
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CallBenchmark {
+  private static final String DECLARATIONS =
+      "fun noop() {}\n" +
+      "fun add(a, b) { return a + b; }\n" +
+      "class Point { init(x, y) { this.x = x; this.y = y; }\n" +
+      "              sum() { return this.x + this.y; } }\n" +
+      "var point = Point(1, 2);\n";
+
+  private Interpreter interpreter;
+  private Expr.Call noop;
+  private Expr.Call add;
+  private Expr.Call method;
+  private Expr.Call constructor;
+  private Expr.Call nativeClock;
+
+  @Setup
+  public void setup() {
+    interpreter = Benchmarks.interpreter();
+    interpreter.interpret(Benchmarks.compile(DECLARATIONS));
+
+    noop = call("noop();");
+    add = call("add(1, 2);");
+    method = call("point.sum();");
+    constructor = call("Point(3, 4);");
+    nativeClock = call("clock();");
+  }
+
+  private static Expr.Call call(String source) {
+    return (Expr.Call)Benchmarks.expression(DECLARATIONS + source);
+  }
+
+  @Benchmark
+  public Object noop() {
+    return interpreter.visitCallExpr(noop);
+  }
+
+  @Benchmark
+  public Object add() {
+    return interpreter.visitCallExpr(add);
+  }
+
+  @Benchmark
+  public Object method() {
+    return interpreter.visitCallExpr(method);
+  }
+
+  @Benchmark
+  public Object constructor() {
+    return interpreter.visitCallExpr(constructor);
+  }
+
+  @Benchmark
+  public Object nativeClock() {
+    return interpreter.visitCallExpr(nativeClock);
+  }
+}
@@ -0,0 +1,72 @@
+package com.ickoxii.jlox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ickoxii.jlox.enums.TokenType;
+
+/**
+ * Variable lookup through a chain of scopes. {@code getAt} is the
+ * path for resolved locals, {@code get} the name-by-name walk used
+ * for globals.
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnvironmentBenchmark {
+  @Param({"0", "1", "4", "16"})
+  int depth;
+
+  private Environment leaf;
+  private Token name;
+  private double value;
+
+  @Setup
+  public void setup() {
+    Environment environment = new Environment();
+    environment.define("x", 1.0);
+    for (int i = 0; i < depth; i++) {
+      environment = new Environment(environment);
+      environment.define("y", 2.0);
+    }
+
+    leaf = environment;
+    name = new Token(TokenType.IDENTIFIER, "x", null, 1);
+  }
+
+  @Benchmark
+  public Object getAt() {
+    return leaf.getAt(depth, "x");
+  }
+
+  @Benchmark
+  public Object get() {
+    return leaf.get(name);
+  }
+
+  @Benchmark
+  public void assignAt() {
+    leaf.assignAt(depth, name, value++);
+  }
+
+  @Benchmark
+  public Object defineInNewScope() {
+    Environment scope = new Environment(leaf);
+    scope.define("z", 3.0);
+    return scope;
+  }
+}
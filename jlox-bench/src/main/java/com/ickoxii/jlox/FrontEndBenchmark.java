@@ -0,0 +1,68 @@
+package com.ickoxii.jlox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanner, parser and resolver throughput on generated programs. Each
+ * unit is about 20 lines, so divide by {@code units} for a per-line
+ * cost.
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrontEndBenchmark {
+  @Param({"10", "100", "1000"})
+  int units;
+
+  private String source;
+  private List<Token> tokens;
+  private List<Stmt> statements;
+
+  private final ErrorReporter reporter = (line, where, message) -> {
+    throw new IllegalStateException(ErrorReporter.format(line, where, message));
+  };
+
+  @Setup
+  public void setup() {
+    source = Benchmarks.generate(units);
+    tokens = new Scanner(source, reporter).scanTokens();
+    statements = new Parser(tokens, reporter).parse();
+  }
+
+  @Benchmark
+  public List<Token> scan() {
+    return new Scanner(source, reporter).scanTokens();
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(tokens, reporter).parse();
+  }
+
+  @Benchmark
+  public List<Stmt> resolve() {
+    new Resolver(reporter).resolve(statements);
+    return statements;
+  }
+
+  @Benchmark
+  public List<Stmt> compile() {
+    return LoxEngine.compile(source, reporter);
+  }
+}
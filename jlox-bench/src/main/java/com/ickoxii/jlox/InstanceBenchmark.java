@@ -0,0 +1,85 @@
+package com.ickoxii.jlox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ickoxii.jlox.enums.TokenType;
+
+/**
+ * Field access on {@link LoxInstance} and method binding through
+ * {@link LoxFunction#bind}, which every {@code obj.method} access pays
+ * for.
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InstanceBenchmark {
+  private static final String DECLARATIONS =
+      "class Base { inherited() { return 1; } }\n" +
+      "class Point < Base {\n" +
+      "  init(x, y) { this.x = x; this.y = y; }\n" +
+      "  sum() { return this.x + this.y; }\n" +
+      "}\n" +
+      "var point = Point(1, 2);\n";
+
+  private LoxInstance instance;
+  private LoxFunction method;
+  private Token field;
+  private Token ownMethod;
+  private Token inheritedMethod;
+  private double value;
+
+  @Setup
+  public void setup() {
+    Interpreter interpreter = Benchmarks.interpreter();
+    interpreter.interpret(Benchmarks.compile(DECLARATIONS));
+
+    instance = (LoxInstance)interpreter.globals.values().get("point");
+    method = instance.klass().findMethod("sum");
+    field = identifier("x");
+    ownMethod = identifier("sum");
+    inheritedMethod = identifier("inherited");
+  }
+
+  private static Token identifier(String name) {
+    return new Token(TokenType.IDENTIFIER, name, null, 1);
+  }
+
+  @Benchmark
+  public Object getField() {
+    return instance.get(field);
+  }
+
+  @Benchmark
+  public void setField() {
+    instance.set(field, value++);
+  }
+
+  @Benchmark
+  public Object getMethod() {
+    return instance.get(ownMethod);
+  }
+
+  @Benchmark
+  public Object getInheritedMethod() {
+    return instance.get(inheritedMethod);
+  }
+
+  @Benchmark
+  public LoxFunction bind() {
+    return method.bind(instance);
+  }
+}
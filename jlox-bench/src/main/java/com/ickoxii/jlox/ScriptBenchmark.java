@@ -0,0 +1,58 @@
+package com.ickoxii.jlox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-program runs of {@code lox/fib-benchmark.lox}. A single run
+ * takes seconds, so these time individual runs rather than averaging
+ * over a fixed period.
+ * */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScriptBenchmark {
+  private String source;
+  private List<Stmt> statements;
+
+  @Setup
+  public void setup() throws IOException {
+    source = Benchmarks.read("fib-benchmark.lox");
+    statements = Benchmarks.compile(source);
+  }
+
+  /**
+   * Just the interpreter: the script is compiled once up front.
+   * */
+  @Benchmark
+  public Interpreter fib() {
+    Interpreter interpreter = Benchmarks.interpreter();
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+
+  /**
+   * What {@code jlox fib-benchmark.lox} does after JVM startup.
+   * */
+  @Benchmark
+  public Interpreter fibFromSource() {
+    Interpreter interpreter = Benchmarks.interpreter();
+    interpreter.interpret(Benchmarks.compile(source));
+    return interpreter;
+  }
+}
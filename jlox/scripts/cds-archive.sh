@@ -0,0 +1,45 @@
+#!/usr/bin/env bash
+#
+# Build an AppCDS archive for the shaded jlox jar.
+#
+# Every sample in lox/ is run once with class-list dumping turned on.
+# The lists are merged (first load order wins) and dumped into a
+# single static archive, so the archive covers the classes any of the
+# samples needed rather than just the ones a single run touched.
+#
+# The archive only applies when the jar is launched from the same
+# path it was built against, e.g.
+#
+#   java -XX:SharedArchiveFile=target/jlox.jsa -jar target/jlox-1.0.0.jar
+#
+# Usage: scripts/cds-archive.sh <jar> <archive> [samples dir]
+
+set -euo pipefail
+
+jar=${1:?jar path required}
+archive=${2:?archive path required}
+samples=${3:-lox}
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+for script in "$samples"/*.lox; do
+  # The benchmarks run for minutes and load nothing the others don't.
+  case "$script" in *-benchmark.lox) continue ;; esac
+
+  java -Xshare:off -XX:DumpLoadedClassList="$work/run.classlist" \
+       -jar "$jar" "$script" > /dev/null 2>&1 < /dev/null || true
+  cat "$work/run.classlist" >> "$work/all.classlist"
+done
+
+# Drop lambda/comment lines and per-run ids, then de-duplicate.
+grep -v '^[@#]' "$work/all.classlist" \
+  | sed 's/ id: .*//' \
+  | awk '!seen[$0]++' > "$work/jlox.classlist"
+
+java -Xshare:dump \
+     -XX:SharedClassListFile="$work/jlox.classlist" \
+     -XX:SharedArchiveFile="$archive" \
+     -cp "$jar"
+
+echo "Wrote $archive ($(wc -l < "$work/jlox.classlist") classes)"
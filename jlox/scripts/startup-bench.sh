@@ -0,0 +1,56 @@
+#!/usr/bin/env bash
+#
+# Compare start-to-exit time of the three ways to launch jlox:
+#
+#   jar     java -jar target/jlox-1.0.0.jar
+#   appcds  the same jar with the archive from `mvn -Pappcds package`
+#   native  target/jlox from `mvn -Pnative package`
+#
+# Variants whose artifact has not been built are skipped.
+#
+# Usage: scripts/startup-bench.sh [script] [runs]
+
+set -euo pipefail
+
+script=${1:-lox/lox-basic-repl.lox}
+runs=${2:-20}
+jar=target/jlox-1.0.0.jar
+archive=target/jlox.jsa
+native=target/jlox
+
+bench() {
+  local name=$1; shift
+  local start end total=0 best=
+
+  for ((i = 0; i < runs; i++)); do
+    start=$(date +%s%N)
+    "$@" "$script" > /dev/null 2>&1 < /dev/null || true
+    end=$(date +%s%N)
+
+    local ms=$(( (end - start) / 1000000 ))
+    total=$(( total + ms ))
+    if [[ -z $best || $ms -lt $best ]]; then best=$ms; fi
+  done
+
+  printf '%-8s mean %5d ms   best %5d ms\n' "$name" $(( total / runs )) "$best"
+}
+
+echo "$script, $runs runs each"
+
+if [[ -f $jar ]]; then
+  bench jar java -jar "$jar"
+else
+  echo "jar      skipped (run mvn package)"
+fi
+
+if [[ -f $jar && -f $archive ]]; then
+  bench appcds java -XX:SharedArchiveFile="$archive" -Xshare:auto -jar "$jar"
+else
+  echo "appcds   skipped (run mvn -Pappcds package)"
+fi
+
+if [[ -x $native ]]; then
+  bench native "$native"
+else
+  echo "native   skipped (run mvn -Pnative package)"
+fi
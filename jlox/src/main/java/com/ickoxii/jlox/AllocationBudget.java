@@ -0,0 +1,75 @@
+package com.ickoxii.jlox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on how many bytes a run may allocate in total, set with
+ * {@link LoxContext#setAllocationLimit} or {@code --max-alloc}.
+ *
+ * This is an allocation budget, not a memory limit. Nothing is ever
+ * credited back: every call's environment, every temporary string and
+ * every list that is dropped a moment later count for good. So it
+ * bounds the work a run does on the heap, which keeps a runaway script
+ * from allocating its way through the machine, and needs nothing from
+ * the garbage collector. It does not bound how much a run keeps alive
+ * at once, and a long run that churns through short-lived objects
+ * needs a budget sized for everything it creates.
+ *
+ * The interpreter charges an estimate for every environment, variable,
+ * instance, new field, function object, list, channel and string built
+ * with {@code +} that it creates, and for every time a list's storage
+ * grows, using the same sizes as {@link HeapCensus}. Charges pile up in
+ * a plain field on the interpreter and only reach the shared total,
+ * and get checked against the limit, once they add up to
+ * {@link #BATCH} bytes. A run can therefore overshoot by a batch.
+ * */
+final class AllocationBudget {
+  static final long BATCH = 64 * 1024;
+
+  static final long ENVIRONMENT = 144;
+  static final long VARIABLE = 32;
+  static final long INSTANCE = 152;
+  static final long FIELD = 32;
+  static final long FUNCTION = 24;
+  static final long BOUND_METHOD = FUNCTION + ENVIRONMENT + VARIABLE;
+  static final long LIST = 24;
+  static final long NUMBER = 16;
+  static final long CHANNEL = 128;
+
+  final long limit;
+  private final AtomicLong used = new AtomicLong();
+
+  AllocationBudget(long limit) {
+    this.limit = limit;
+  }
+
+  static long string(String value) {
+    return 40 + value.length();
+  }
+
+  /**
+   * A {@code double[]} of the given length.
+   * */
+  static long numbers(int length) {
+    return 16 + 8L * length;
+  }
+
+  /**
+   * An {@code Object[]} of the given length.
+   * */
+  static long references(int length) {
+    return 16 + 4L * length;
+  }
+
+  /**
+   * Adds a batch to the total. Returns false once the total is over
+   * the limit.
+   * */
+  boolean charge(long bytes) {
+    return used.addAndGet(bytes) <= limit;
+  }
+
+  void reset() {
+    used.set(0);
+  }
+}
@@ -0,0 +1,177 @@
+package com.ickoxii.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs every {@code .lox} file under a directory on a pool of worker
+ * threads inside one JVM ({@code jlox run-all}).
+ *
+ * Each script is compiled and run in its own {@link LoxContext}, so
+ * scripts can't see each other's globals, and its output is captured
+ * rather than interleaved on stdout. When everything has finished a
+ * summary of exit statuses and timings is printed, with the errors of
+ * any script that failed.
+ *
+ * A script that crashes the interpreter itself only fails on its own,
+ * with status 70, and a script that runs past the time limit is
+ * stopped, so one bad script can't take the batch down with it.
+ * */
+final class BatchRunner {
+  static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(1);
+
+  private final LoxEngine engine = new LoxEngine();
+  private final int threads;
+  private final Path outputDir;
+  private final Duration timeout;
+
+  /**
+   * @param threads Size of the worker pool.
+   * @param outputDir Where to save each script's captured output, or
+   *                  null to discard it.
+   * @param timeout How long each script may run, or null for no limit.
+   * */
+  BatchRunner(int threads, Path outputDir, Duration timeout) {
+    this.threads = threads;
+    this.outputDir = outputDir;
+    this.timeout = timeout;
+  }
+
+  /**
+   * The outcome of one script.
+   * */
+  static class Result {
+    final Path script;
+    final int status;
+    final long nanos;
+    final String output;
+    final String errors;
+
+    Result(Path script, int status, long nanos, String output,
+           String errors) {
+      this.script = script;
+      this.status = status;
+      this.nanos = nanos;
+      this.output = output;
+      this.errors = errors;
+    }
+  }
+
+  /**
+   * Runs the scripts and prints the summary.
+   *
+   * @return The highest exit status of any script, so 0 means every
+   *         script succeeded.
+   * @throws IOException If the directory can't be read.
+   * */
+  int runAll(Path dir) throws IOException {
+    List<Path> scripts;
+    try (Stream<Path> files = Files.walk(dir)) {
+      scripts = files.filter(p -> p.toString().endsWith(".lox"))
+                     .sorted()
+                     .collect(Collectors.toList());
+    }
+
+    long start = System.nanoTime();
+    List<Result> results = run(scripts);
+    long elapsed = System.nanoTime() - start;
+
+    if (outputDir != null) save(dir, results);
+    return summarize(results, elapsed);
+  }
+
+  private List<Result> run(List<Path> scripts) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Result>> pending = new ArrayList<>();
+      for (Path script : scripts) {
+        pending.add(pool.submit(() -> run(script)));
+      }
+
+      List<Result> results = new ArrayList<>();
+      for (Future<Result> result : pending) {
+        results.add(result.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while running scripts.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private Result run(Path script) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    long start = System.nanoTime();
+    int status = 0;
+    String errors = "";
+
+    try {
+      byte[] bytes = Files.readAllBytes(script);
+      CompiledScript compiled =
+          engine.compile(new String(bytes, Charset.defaultCharset()));
+      LoxContext context = engine.createContext(new PrintStream(output, true));
+      context.setLimits(0, 0, timeout);
+      compiled.execute(context);
+    } catch (LoxException e) {
+      status = e.exitCode();
+      errors = e.getMessage();
+    } catch (IOException e) {
+      status = 66;
+      errors = "Can't read script: " + e.getMessage();
+    } catch (RuntimeException | Error e) {
+      status = 70;
+      errors = "Internal error: " + e;
+    }
+
+    return new Result(script, status, System.nanoTime() - start,
+        output.toString(), errors);
+  }
+
+  private void save(Path dir, List<Result> results) throws IOException {
+    for (Result result : results) {
+      Path target = outputDir.resolve(dir.relativize(result.script) + ".out");
+      Files.createDirectories(target.getParent());
+      Files.writeString(target, result.output + result.errors);
+    }
+  }
+
+  private int summarize(List<Result> results, long elapsed) {
+    int failed = 0;
+    int worst = 0;
+    for (Result result : results) {
+      System.out.printf("%-4s %9.1f ms  %s%n",
+          result.status == 0 ? "ok" : String.valueOf(result.status),
+          result.nanos / 1e6, result.script);
+
+      if (result.status != 0) {
+        failed++;
+        worst = Math.max(worst, result.status);
+        for (String line : result.errors.split("\n")) {
+          System.out.println("       " + line);
+        }
+      }
+    }
+
+    System.out.printf("%d scripts, %d passed, %d failed in %.2f s on %d threads%n",
+        results.size(), results.size() - failed, failed, elapsed / 1e9,
+        threads);
+    return worst;
+  }
+}
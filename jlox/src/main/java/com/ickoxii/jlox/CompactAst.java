@@ -0,0 +1,652 @@
+package com.ickoxii.jlox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ickoxii.jlox.enums.TokenType;
+
+/**
+ * The serialized form of a parsed and resolved program, which
+ * {@code .loxc} files and heap images store.
+ *
+ * It is a flat, struct-of-arrays layout, so writing and reading it is
+ * a straight run over a few primitive arrays with no object graph to
+ * walk, and each distinct lexeme or literal is stored once. It is not
+ * an in-memory representation: programs run as the usual Expr and
+ * Stmt tree.
+ *
+ * A node is an int index into a handful of parallel primitive arrays:
+ *
+ *   kinds     - what the node is (one of the constants below)
+ *   lines     - source line of the node
+ *   operands  - index into the constant pool (lexemes and literal
+ *               values), or the resolved depth for variable nodes
+ *   types     - TokenType ordinal, only meaningful for TOKEN nodes
+ *   offsets   - where the node's children start in the children array
+ *
+ * The children of node n are children[offsets[n] .. offsets[n + 1]),
+ * laid out in the same order as the fields GenerateAst declares for
+ * the node. A Token field becomes a TOKEN node, a List field becomes
+ * a LIST node, and a missing (null) child is stored as NONE.
+ *
+ * Nodes are numbered in post-order, so the last node is the LIST
+ * holding the top-level statements.
+ *
+ * Variable, Assign, This and Super nodes keep the depth the Resolver
+ * gave them, so a decoded tree is ready to interpret as-is.
+ *
+ * {@link #statements()} decodes the whole tree in one go. Callers keep
+ * the tree and drop the CompactAst, so a running program never holds
+ * both.
+ * */
+final class CompactAst {
+  static final int NONE = -1;
+
+  // Structural kinds.
+  static final byte TOKEN = 0;
+  static final byte LIST = 1;
+
+  // Expression kinds.
+  static final byte ASSIGN = 2;
+  static final byte BINARY = 3;
+  static final byte CALL = 4;
+  static final byte GET = 5;
+  static final byte GROUPING = 6;
+  static final byte LITERAL = 7;
+  static final byte LOGICAL = 8;
+  static final byte SET = 9;
+  static final byte SUPER = 10;
+  static final byte THIS = 11;
+  static final byte UNARY = 12;
+  static final byte VARIABLE = 13;
+
+  // Statement kinds.
+  static final byte BLOCK = 14;
+  static final byte CLASS = 15;
+  static final byte EXPRESSION = 16;
+  static final byte FUNCTION = 17;
+  static final byte IF = 18;
+  static final byte PRINT = 19;
+  static final byte RETURN = 20;
+  static final byte VAR = 21;
+  static final byte WHILE = 22;
+
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+  private final byte[] kinds;
+  private final int[] lines;
+  private final int[] operands;
+  private final byte[] types;
+  private final int[] offsets;
+  private final int[] children;
+  private final Object[] constants;
+
+  CompactAst(byte[] kinds, int[] lines, int[] operands, byte[] types,
+             int[] offsets, int[] children, Object[] constants) {
+    this.kinds = kinds;
+    this.lines = lines;
+    this.operands = operands;
+    this.types = types;
+    this.offsets = offsets;
+    this.children = children;
+    this.constants = constants;
+  }
+
+  /**
+   * Encodes a list of statements produced by the Parser.
+   * */
+  static CompactAst encode(List<Stmt> statements) {
+    Encoder encoder = new Encoder();
+    encoder.encodeStmts(statements);
+    return encoder.finish();
+  }
+
+  int nodeCount() {
+    return kinds.length;
+  }
+
+  int root() {
+    return kinds.length - 1;
+  }
+
+  byte kind(int node) {
+    return kinds[node];
+  }
+
+  int line(int node) {
+    return lines[node];
+  }
+
+  int childCount(int node) {
+    return offsets[node + 1] - offsets[node];
+  }
+
+  int child(int node, int index) {
+    return children[offsets[node] + index];
+  }
+
+  Object constant(int node) {
+    return constants[operands[node]];
+  }
+
+  TokenType tokenType(int node) {
+    return TOKEN_TYPES[types[node]];
+  }
+
+  // Constant pool tags.
+  private static final byte NIL = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte NUMBER = 2;
+  private static final byte STRING = 3;
+
+  /**
+   * Writes the arrays and constant pool as a flat binary image.
+   * */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(kinds.length);
+    out.write(kinds);
+    out.write(types);
+    for (int i = 0; i < kinds.length; ++i) {
+      out.writeInt(lines[i]);
+      out.writeInt(operands[i]);
+      out.writeInt(offsets[i]);
+    }
+
+    out.writeInt(children.length);
+    for (int child : children) {
+      out.writeInt(child);
+    }
+
+    out.writeInt(constants.length);
+    for (Object constant : constants) {
+      if (constant == null) {
+        out.writeByte(NIL);
+      } else if (constant instanceof Boolean) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean)constant);
+      } else if (constant instanceof Double) {
+        out.writeByte(NUMBER);
+        out.writeDouble((Double)constant);
+      } else {
+        byte[] bytes = ((String)constant).getBytes(StandardCharsets.UTF_8);
+        out.writeByte(STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+
+  /**
+   * Reads back an image produced by {@link #write}.
+   *
+   * @param limit How many bytes are left to read at most, usually the
+   *              size of the file, so that a corrupt length can't ask
+   *              for arrays far larger than the image.
+   * @throws IOException If the image is truncated or its indexes point
+   *                     outside the arrays.
+   * */
+  static CompactAst read(DataInputStream in, long limit) throws IOException {
+    // Each node takes 14 bytes: a kind, a type and three ints.
+    int count = length(in, limit, 14);
+    byte[] kinds = new byte[count];
+    byte[] types = new byte[count];
+    int[] lines = new int[count];
+    int[] operands = new int[count];
+    int[] offsets = new int[count + 1];
+    in.readFully(kinds);
+    in.readFully(types);
+    for (int i = 0; i < count; ++i) {
+      lines[i] = in.readInt();
+      operands[i] = in.readInt();
+      offsets[i] = in.readInt();
+    }
+
+    int[] children = new int[length(in, limit, 4)];
+    for (int i = 0; i < children.length; ++i) {
+      children[i] = in.readInt();
+    }
+    offsets[count] = children.length;
+
+    Object[] constants = new Object[length(in, limit, 1)];
+    for (int i = 0; i < constants.length; ++i) {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NIL: constants[i] = null; break;
+        case BOOLEAN: constants[i] = in.readBoolean(); break;
+        case NUMBER: constants[i] = in.readDouble(); break;
+        case STRING:
+          byte[] bytes = new byte[length(in, limit, 1)];
+          in.readFully(bytes);
+          constants[i] = new String(bytes, StandardCharsets.UTF_8);
+          break;
+        default:
+          throw new IOException("Bad constant tag " + tag + ".");
+      }
+    }
+
+    CompactAst ast = new CompactAst(kinds, lines, operands, types, offsets,
+        children, constants);
+    ast.check();
+    return ast;
+  }
+
+  private static int length(DataInputStream in, long limit, int bytesEach)
+      throws IOException {
+    int length = in.readInt();
+    if (length < 0 || (long)length * bytesEach > limit) {
+      throw new IOException("Bad array length " + length + ".");
+    }
+    return length;
+  }
+
+  /**
+   * Makes sure every index points where it may. Children always come
+   * before their parent in post-order, which also rules out cycles.
+   * */
+  private void check() throws IOException {
+    if (kinds.length == 0 || kinds[root()] != LIST) {
+      throw new IOException("Missing top-level statement list.");
+    }
+
+    for (int node = 0; node < kinds.length; ++node) {
+      if (kinds[node] < TOKEN || kinds[node] > WHILE) {
+        throw new IOException("Bad kind at node " + node + ".");
+      }
+      if (offsets[node] < 0 || offsets[node] > offsets[node + 1]) {
+        throw new IOException("Bad child offset at node " + node + ".");
+      }
+      for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+        if (children[i] < NONE || children[i] >= node) {
+          throw new IOException("Bad child at node " + node + ".");
+        }
+      }
+
+      if (kinds[node] == TOKEN &&
+          (types[node] < 0 || types[node] >= TOKEN_TYPES.length)) {
+        throw new IOException("Bad token type at node " + node + ".");
+      }
+      if ((kinds[node] == TOKEN || kinds[node] == LITERAL) &&
+          (operands[node] < 0 || operands[node] >= constants.length)) {
+        throw new IOException("Bad constant at node " + node + ".");
+      }
+    }
+  }
+
+  /**
+   * Decodes the top-level statements back into Stmt objects. Nothing
+   * in them refers back to this object.
+   * */
+  List<Stmt> statements() {
+    return stmts(root());
+  }
+
+  private Token token(int node) {
+    if (node == NONE) return null;
+    return new Token(tokenType(node), (String)constant(node), null,
+        lines[node]);
+  }
+
+  private List<Token> tokens(int node) {
+    List<Token> list = new ArrayList<>(childCount(node));
+    for (int i = 0; i < childCount(node); ++i) {
+      list.add(token(child(node, i)));
+    }
+    return list;
+  }
+
+  private List<Expr> exprs(int node) {
+    List<Expr> list = new ArrayList<>(childCount(node));
+    for (int i = 0; i < childCount(node); ++i) {
+      list.add(expr(child(node, i)));
+    }
+    return list;
+  }
+
+  private List<Stmt> stmts(int node) {
+    List<Stmt> list = new ArrayList<>(childCount(node));
+    for (int i = 0; i < childCount(node); ++i) {
+      list.add(stmt(child(node, i)));
+    }
+    return list;
+  }
+
+  private List<Stmt.Function> functions(int node) {
+    List<Stmt.Function> list = new ArrayList<>(childCount(node));
+    for (int i = 0; i < childCount(node); ++i) {
+      list.add((Stmt.Function)stmt(child(node, i)));
+    }
+    return list;
+  }
+
+  Expr expr(int node) {
+    if (node == NONE) return null;
+
+    Expr expr = decodeExpr(node);
+    switch (kinds[node]) {
+      case ASSIGN:
+      case SUPER:
+      case THIS:
+      case VARIABLE:
+        expr.depth = operands[node];
+    }
+    return expr;
+  }
+
+  private Expr decodeExpr(int node) {
+    switch (kinds[node]) {
+      case ASSIGN:
+        return new Expr.Assign(token(child(node, 0)), expr(child(node, 1)));
+      case BINARY:
+        return new Expr.Binary(expr(child(node, 0)), token(child(node, 1)),
+            expr(child(node, 2)));
+      case CALL:
+        return new Expr.Call(expr(child(node, 0)), token(child(node, 1)),
+            exprs(child(node, 2)));
+      case GET:
+        return new Expr.Get(expr(child(node, 0)), token(child(node, 1)));
+      case GROUPING:
+        return new Expr.Grouping(expr(child(node, 0)));
+      case LITERAL:
+        return new Expr.Literal(constant(node));
+      case LOGICAL:
+        return new Expr.Logical(expr(child(node, 0)), token(child(node, 1)),
+            expr(child(node, 2)));
+      case SET:
+        return new Expr.Set(expr(child(node, 0)), token(child(node, 1)),
+            expr(child(node, 2)));
+      case SUPER:
+        return new Expr.Super(token(child(node, 0)), token(child(node, 1)));
+      case THIS:
+        return new Expr.This(token(child(node, 0)));
+      case UNARY:
+        return new Expr.Unary(token(child(node, 0)), expr(child(node, 1)));
+      case VARIABLE:
+        return new Expr.Variable(token(child(node, 0)));
+    }
+
+    throw new IllegalStateException(
+        "Node " + node + " is not an expression.");
+  }
+
+  Stmt stmt(int node) {
+    if (node == NONE) return null;
+
+    Stmt stmt = decodeStmt(node);
+    stmt.line = lines[node];
+    return stmt;
+  }
+
+  private Stmt decodeStmt(int node) {
+    switch (kinds[node]) {
+      case BLOCK:
+        return new Stmt.Block(stmts(child(node, 0)));
+      case CLASS:
+        return new Stmt.Class(token(child(node, 0)),
+            (Expr.Variable)expr(child(node, 1)), functions(child(node, 2)));
+      case EXPRESSION:
+        return new Stmt.Expression(expr(child(node, 0)));
+      case FUNCTION:
+        return new Stmt.Function(token(child(node, 0)),
+            tokens(child(node, 1)), stmts(child(node, 2)));
+      case IF:
+        return new Stmt.If(expr(child(node, 0)), stmt(child(node, 1)),
+            stmt(child(node, 2)));
+      case PRINT:
+        return new Stmt.Print(expr(child(node, 0)));
+      case RETURN:
+        return new Stmt.Return(token(child(node, 0)), expr(child(node, 1)));
+      case VAR:
+        return new Stmt.Var(token(child(node, 0)), expr(child(node, 1)));
+      case WHILE:
+        return new Stmt.While(expr(child(node, 0)), stmt(child(node, 1)));
+    }
+
+    throw new IllegalStateException(
+        "Node " + node + " is not a statement.");
+  }
+
+  /**
+   * Walks the object tree and appends nodes in post-order: a node's
+   * children are encoded first, then the node itself, so each node's
+   * child slots can be appended in node order.
+   * */
+  private static class Encoder implements Expr.Visitor<Integer>,
+                                          Stmt.Visitor<Integer> {
+    private byte[] kinds = new byte[256];
+    private int[] lines = new int[256];
+    private int[] operands = new int[256];
+    private byte[] types = new byte[256];
+    private int[] offsets = new int[257];
+    private int[] children = new int[256];
+    private int count = 0;
+    private int childTotal = 0;
+
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    Encoder() {
+      // Slot 0 of the pool is always nil.
+      constants.add(null);
+    }
+
+    CompactAst finish() {
+      offsets[count] = childTotal;
+      return new CompactAst(
+          Arrays.copyOf(kinds, count),
+          Arrays.copyOf(lines, count),
+          Arrays.copyOf(operands, count),
+          Arrays.copyOf(types, count),
+          Arrays.copyOf(offsets, count + 1),
+          Arrays.copyOf(children, childTotal),
+          constants.toArray());
+    }
+
+    private int constant(Object value) {
+      if (value == null) return 0;
+
+      Integer index = constantIndex.get(value);
+      if (index == null) {
+        index = constants.size();
+        constants.add(value);
+        constantIndex.put(value, index);
+      }
+      return index;
+    }
+
+    /**
+     * Appends a node whose children have already been encoded.
+     * The line is taken from the first child that has one.
+     * */
+    private int node(byte kind, int operand, int... nodeChildren) {
+      if (count + 1 == kinds.length) {
+        int capacity = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        operands = Arrays.copyOf(operands, capacity);
+        types = Arrays.copyOf(types, capacity);
+        offsets = Arrays.copyOf(offsets, capacity + 1);
+      }
+      if (childTotal + nodeChildren.length > children.length) {
+        children = Arrays.copyOf(children,
+            Math.max(children.length * 2, childTotal + nodeChildren.length));
+      }
+
+      int line = 0;
+      for (int child : nodeChildren) {
+        if (line == 0 && child != NONE) line = lines[child];
+      }
+
+      kinds[count] = kind;
+      lines[count] = line;
+      operands[count] = operand;
+      offsets[count] = childTotal;
+      System.arraycopy(nodeChildren, 0, children, childTotal,
+          nodeChildren.length);
+      childTotal += nodeChildren.length;
+      return count++;
+    }
+
+    private int token(Token token) {
+      int node = node(TOKEN, constant(token.lexeme));
+      lines[node] = token.line;
+      types[node] = (byte)token.type.ordinal();
+      return node;
+    }
+
+    private int expr(Expr expr) {
+      if (expr == null) return NONE;
+      return expr.accept(this);
+    }
+
+    private int stmt(Stmt stmt) {
+      if (stmt == null) return NONE;
+      int node = stmt.accept(this);
+      if (stmt.line > 0) lines[node] = stmt.line;
+      return node;
+    }
+
+    int encodeStmts(List<? extends Stmt> statements) {
+      int[] nodes = new int[statements.size()];
+      for (int i = 0; i < nodes.length; ++i) {
+        nodes[i] = stmt(statements.get(i));
+      }
+      return node(LIST, NONE, nodes);
+    }
+
+    private int encodeExprs(List<Expr> exprs) {
+      int[] nodes = new int[exprs.size()];
+      for (int i = 0; i < nodes.length; ++i) {
+        nodes[i] = expr(exprs.get(i));
+      }
+      return node(LIST, NONE, nodes);
+    }
+
+    private int encodeTokens(List<Token> tokens) {
+      int[] nodes = new int[tokens.size()];
+      for (int i = 0; i < nodes.length; ++i) {
+        nodes[i] = token(tokens.get(i));
+      }
+      return node(LIST, NONE, nodes);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      return node(ASSIGN, expr.depth, token(expr.name), expr(expr.value));
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      return node(BINARY, NONE, expr(expr.left), token(expr.operator),
+          expr(expr.right));
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      return node(CALL, NONE, expr(expr.callee), token(expr.paren),
+          encodeExprs(expr.arguments));
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+      return node(GET, NONE, expr(expr.object), token(expr.name));
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      return node(GROUPING, NONE, expr(expr.expression));
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      return node(LITERAL, constant(expr.value));
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      return node(LOGICAL, NONE, expr(expr.left), token(expr.operator),
+          expr(expr.right));
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+      return node(SET, NONE, expr(expr.object), token(expr.name),
+          expr(expr.value));
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+      return node(SUPER, expr.depth, token(expr.keyword),
+          token(expr.method));
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+      return node(THIS, expr.depth, token(expr.keyword));
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      return node(UNARY, NONE, token(expr.operator), expr(expr.right));
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      return node(VARIABLE, expr.depth, token(expr.name));
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      return node(BLOCK, NONE, encodeStmts(stmt.statements));
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+      return node(CLASS, NONE, token(stmt.name), expr(stmt.superclass),
+          encodeStmts(stmt.methods));
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      return node(EXPRESSION, NONE, expr(stmt.expression));
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      return node(FUNCTION, NONE, token(stmt.name),
+          encodeTokens(stmt.params), encodeStmts(stmt.body));
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      return node(IF, NONE, expr(stmt.condition), stmt(stmt.thenBranch),
+          stmt(stmt.elseBranch));
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      return node(PRINT, NONE, expr(stmt.expression));
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      return node(RETURN, NONE, token(stmt.keyword), expr(stmt.value));
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      return node(VAR, NONE, token(stmt.name), expr(stmt.initializer));
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      return node(WHILE, NONE, expr(stmt.condition), stmt(stmt.body));
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.ickoxii.jlox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scanned, parsed and resolved program.
+ *
+ * The Resolver writes each variable's scope depth onto the syntax
+ * tree before this object is constructed, and nothing writes to the
+ * tree after that. The final field below publishes the finished
+ * tree, so a compiled script can be executed from many threads at
+ * once, each in its own {@link LoxContext}.
+ * */
+public final class CompiledScript {
+  final List<Stmt> statements;
+
+  CompiledScript(List<Stmt> statements) {
+    this.statements = Collections.unmodifiableList(statements);
+  }
+
+  /**
+   * Runs the script in the given context. Globals the script defines
+   * stay in the context, so running several scripts in one context
+   * works like entering them one after another at the REPL.
+   *
+   * @throws LoxException If the script fails with a runtime error.
+   * */
+  public void execute(LoxContext context) throws LoxException {
+    context.run(statements);
+  }
+}
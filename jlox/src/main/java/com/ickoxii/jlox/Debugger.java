@@ -0,0 +1,277 @@
+package com.ickoxii.jlox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Line debugger behind {@code --debug}.
+ *
+ * Nothing in the interpreter checks for a debugger per statement.
+ * Instead, when the program starts, the debugger indexes its tree
+ * with {@link Probes} and keeps probes installed only where it may
+ * need to stop: on every statement while stepping, and on breakpoint
+ * lines otherwise. With no breakpoints left, a continued program runs
+ * plain nodes again. {@link LoxFunction#call} reports calls so that
+ * stepping over and out of them knows how deep the program is.
+ *
+ * Commands are read from {@code in} whenever the program stops, which
+ * it does before the first statement. Messages go to {@code out}, so
+ * the program's own output can still be piped elsewhere.
+ * */
+final class Debugger {
+  private enum Step { NONE, IN, OVER, OUT }
+
+  /**
+   * A call in progress and the line it has reached.
+   * */
+  private static class Frame {
+    final String name;
+    int line;
+
+    Frame(String name, int line) {
+      this.name = name;
+      this.line = line;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final BufferedReader in;
+  private final PrintStream out;
+  private final List<String> source;
+
+  private final Set<Integer> breakpoints = new TreeSet<>();
+  private final List<Frame> frames = new ArrayList<>();
+  private Probes probes;
+
+  private Step step = Step.IN;
+  private int stepDepth = 0;
+
+  // Where the program last stopped, so that a line holding several
+  // statements only stops once.
+  private int stoppedLine = -1;
+  private int stoppedDepth = -1;
+
+  /**
+   * @param source The script's lines, for showing where the program
+   *               stopped. May be empty.
+   * */
+  Debugger(Interpreter interpreter, BufferedReader in, PrintStream out,
+           List<String> source) {
+    this.interpreter = interpreter;
+    this.in = in;
+    this.out = out;
+    this.source = source;
+    frames.add(new Frame(Profiler.SCRIPT, 0));
+  }
+
+  /**
+   * Indexes a resolved program. Returns the statements to run in its
+   * place.
+   * */
+  List<Stmt> attach(List<Stmt> statements) {
+    probes = new Probes(statements, interpreter, this::before);
+    reinstall();
+    return probes.statements;
+  }
+
+  void enter(LoxFunction function) {
+    Stmt.Function declaration = function.declaration();
+    frames.add(new Frame(interpreter.names.of(declaration), declaration.line));
+  }
+
+  void exit() {
+    frames.remove(frames.size() - 1);
+  }
+
+  private void before(Stmt stmt) {
+    int depth = frames.size();
+    frames.get(depth - 1).line = stmt.line;
+
+    if (stmt.line == stoppedLine && depth == stoppedDepth) return;
+    stoppedLine = -1;
+
+    boolean stop;
+    switch (step) {
+      case IN:   stop = true; break;
+      case OVER: stop = depth <= stepDepth; break;
+      case OUT:  stop = depth < stepDepth; break;
+      default:   stop = false;
+    }
+    if (!stop && !breakpoints.contains(stmt.line)) return;
+
+    stoppedLine = stmt.line;
+    stoppedDepth = depth;
+    pause(stmt.line);
+  }
+
+  private void pause(int line) {
+    out.println("[line " + line + "] in " + frames.get(frames.size() - 1).name);
+    if (line >= 1 && line <= source.size()) {
+      out.println("  " + source.get(line - 1).strip());
+    }
+
+    for (;;) {
+      out.print("(jlox) ");
+      out.flush();
+
+      String command;
+      try {
+        command = in.readLine();
+      } catch (IOException error) {
+        command = null;
+      }
+
+      // Without anyone to ask, let the program finish.
+      if (command == null) {
+        breakpoints.clear();
+        resume(Step.NONE);
+        return;
+      }
+
+      String[] words = command.strip().split("\\s+", 2);
+      String argument = words.length > 1 ? words[1] : null;
+      switch (words[0]) {
+        case "s": case "step":
+          resume(Step.IN);
+          return;
+        case "n": case "next":
+          resume(Step.OVER);
+          return;
+        case "f": case "finish":
+          resume(Step.OUT);
+          return;
+        case "c": case "continue":
+          resume(Step.NONE);
+          return;
+        case "b": case "break":
+          breakpoint(argument, true);
+          break;
+        case "d": case "delete":
+          breakpoint(argument, false);
+          break;
+        case "e": case "env":
+          environments();
+          break;
+        case "p": case "print":
+          variable(argument);
+          break;
+        case "w": case "where":
+          where();
+          break;
+        case "q": case "quit":
+          System.exit(0);
+          break;
+        case "":
+          break;
+        default:
+          help();
+      }
+    }
+  }
+
+  private void resume(Step step) {
+    this.step = step;
+    this.stepDepth = frames.size();
+    reinstall();
+  }
+
+  private void reinstall() {
+    if (step != Step.NONE) {
+      probes.install(line -> true);
+    } else {
+      probes.install(breakpoints::contains);
+    }
+  }
+
+  private void breakpoint(String argument, boolean set) {
+    if (argument == null) {
+      out.println(breakpoints.isEmpty() ? "No breakpoints."
+                                        : "Breakpoints: " + breakpoints);
+      return;
+    }
+
+    int line;
+    try {
+      line = Integer.parseInt(argument);
+    } catch (NumberFormatException error) {
+      out.println("Expected a line number.");
+      return;
+    }
+
+    if (!set) {
+      if (!breakpoints.remove(line)) out.println("No breakpoint at line " + line + ".");
+    } else if (!probes.covers(line)) {
+      out.println("No statement starts at line " + line + ".");
+    } else {
+      breakpoints.add(line);
+    }
+  }
+
+  /**
+   * Every scope from the innermost out, skipping native functions.
+   * */
+  private void environments() {
+    int depth = 0;
+    for (Environment environment = interpreter.currentEnvironment();
+         environment != null; environment = environment.enclosing) {
+      out.println(environment == interpreter.globals ? "globals:"
+                                                     : "scope " + depth++ + ":");
+
+      Map<String, Object> values = new TreeMap<>(environment.values());
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        if (isNative(entry.getValue())) continue;
+        out.println("  " + entry.getKey() + " = "
+            + Interpreter.stringify(entry.getValue()));
+      }
+    }
+  }
+
+  private static boolean isNative(Object value) {
+    return value instanceof LoxCallable
+        && !(value instanceof LoxFunction) && !(value instanceof LoxClass);
+  }
+
+  private void variable(String name) {
+    if (name == null) {
+      out.println("Expected a variable name.");
+      return;
+    }
+
+    for (Environment environment = interpreter.currentEnvironment();
+         environment != null; environment = environment.enclosing) {
+      if (environment.values().containsKey(name)) {
+        out.println(name + " = "
+            + Interpreter.stringify(environment.values().get(name)));
+        return;
+      }
+    }
+    out.println("Undefined variable '" + name + "'.");
+  }
+
+  private void where() {
+    for (int i = frames.size() - 1; i >= 0; i--) {
+      Frame frame = frames.get(i);
+      out.println("  [line " + frame.line + "] in " + frame.name);
+    }
+  }
+
+  private void help() {
+    out.println("  s, step          run to the next statement");
+    out.println("  n, next          run to the next statement, stepping over calls");
+    out.println("  f, finish        run until the current function returns");
+    out.println("  c, continue      run to the next breakpoint");
+    out.println("  b, break [line]  set a breakpoint, or list them");
+    out.println("  d, delete line   remove a breakpoint");
+    out.println("  e, env           show the variables in every enclosing scope");
+    out.println("  p, print name    show a variable");
+    out.println("  w, where         show the calls in progress");
+    out.println("  q, quit          stop the program");
+  }
+}
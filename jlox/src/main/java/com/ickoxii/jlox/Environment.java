@@ -1,38 +1,55 @@
 package com.ickoxii.jlox;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 class Environment {
   final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
+  private final SharedMap values = new SharedMap();
+
+  /**
+   * Only set on a global scope, by {@link LoxContext#setOuterScope}.
+   * Asked for a name that is defined nowhere else before reading it
+   * fails, and answers {@link SharedMap#MISSING} if it hasn't got it
+   * either.
+   * */
+  Function<String, Object> outer;
 
   // Constructor for global scope
   Environment() {
     enclosing = null;
+    if (LoxMetrics.enabled) LoxMetrics.ENVIRONMENTS.increment();
+
+    HeapCensus census = HeapCensus.active;
+    if (census != null) census.environment(this);
   }
 
   // Constructor for each subsequent block scope
   Environment(Environment enclosing) {
     this.enclosing = enclosing;
+    if (LoxMetrics.enabled) LoxMetrics.ENVIRONMENTS.increment();
+
+    HeapCensus census = HeapCensus.active;
+    if (census != null) census.environment(this);
   }
 
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
-    }
+    Object value = values.lookup(name.lexeme);
+    if (value != SharedMap.MISSING) return value;
 
     if (enclosing != null) return enclosing.get(name);
 
+    if (outer != null) {
+      value = outer.apply(name.lexeme);
+      if (value != SharedMap.MISSING) return value;
+    }
+
     throw new RuntimeError(name,
         "Undefined variable '" + name.lexeme + "'.");
   }
 
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
+    if (values.assign(name.lexeme, value)) return;
 
     if (enclosing != null) {
       enclosing.assign(name, value);
@@ -43,6 +60,14 @@ class Environment {
         "Undefined variable '" + name.lexeme + "'.");
   }
 
+  /**
+   * The variables declared directly in this scope. Used to walk the
+   * object graph when saving a heap image.
+   * */
+  Map<String, Object> values() {
+    return values;
+  }
+
   void define(String name, Object value) {
     values.put(name, value);
   }
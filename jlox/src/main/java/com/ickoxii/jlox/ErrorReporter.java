@@ -0,0 +1,45 @@
+package com.ickoxii.jlox;
+
+import com.ickoxii.jlox.enums.TokenType;
+
+/**
+ * Where the Scanner, Parser and Resolver send the errors they find.
+ *
+ * Decoupling the code that finds errors from the code that reports
+ * them lets the command line print to stderr while an embedded
+ * engine collects them per compile, without either touching shared
+ * state.
+ * */
+interface ErrorReporter {
+  /**
+   * Reports a formatted error.
+   *
+   * @param line Line number containing error.
+   * @param where Location where error occurs.
+   * @param message Error message.
+   * */
+  void report(int line, String where, String message);
+
+  /**
+   * @param line Line number containing the error.
+   * @param message Error message.
+   * */
+  default void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  default void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line, " at end", message);
+    } else {
+      report(token.line, " at '" + token.lexeme + "'", message);
+    }
+  }
+
+  /**
+   * The one format every reporter uses for a compile error.
+   * */
+  static String format(int line, String where, String message) {
+    return "[line " + line + "] Error" + where + ": " + message;
+  }
+}
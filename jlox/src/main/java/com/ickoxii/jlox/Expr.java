@@ -93,6 +93,11 @@ abstract class Expr {
      * */
     R visitVariableExpr(Variable expr);
   }
+
+  /**
+   * Not part of the syntax. Filled in after the node is built.
+   * */
+  int depth = -1;
   static class Assign extends Expr {
     /**
      * Constructs a new Assign instance.
@@ -0,0 +1,27 @@
+package com.ickoxii.jlox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Display names for functions in profiler output and JFR events: {@code Class.method}
+ * for methods, the plain name otherwise.
+ *
+ * A method's declaration doesn't know its class, so the interpreter
+ * reports each class definition here. Classes it never saw defined,
+ * such as ones restored from a heap image, show their methods by
+ * plain name.
+ * */
+final class FunctionNames {
+  private final Map<Stmt.Function, String> methods = new IdentityHashMap<>();
+
+  synchronized void declare(Stmt.Class klass) {
+    for (Stmt.Function method : klass.methods) {
+      methods.put(method, klass.name.lexeme + "." + method.name.lexeme);
+    }
+  }
+
+  synchronized String of(Stmt.Function function) {
+    return methods.getOrDefault(function, function.name.lexeme);
+  }
+}
@@ -0,0 +1,260 @@
+package com.ickoxii.jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allocation census for Lox objects, behind {@code --heap-census} or
+ * {@code -Djlox.census=true}.
+ *
+ * The census is process-wide: there is at most one, in {@link #active},
+ * and it counts the objects of every interpreter and
+ * {@link LoxContext} in the JVM together. Embedders running several
+ * contexts get combined counts; the byte figures are still per
+ * interpreter.
+ *
+ * While {@link #active} is set, every {@link LoxInstance} (per class
+ * name), {@link Environment}, {@link LoxFunction} and {@link LoxList}
+ * is counted when
+ * it is created, and registered with a {@link Cleaner} so the live
+ * count drops once the garbage collector has reclaimed it. Live counts
+ * therefore lag behind until the next collection.
+ *
+ * Byte figures come from walking the object graph reachable from an
+ * interpreter's scopes, including those of its callers, not from the
+ * counters. Each object is billed
+ * for its own size plus the maps and boxed values it holds, but not
+ * for other Lox objects it points to, so the figures for different
+ * classes add up instead of overlapping. Sizes are estimates for a
+ * 64-bit JVM with compressed pointers.
+ * */
+final class HeapCensus {
+  static volatile HeapCensus active =
+      Boolean.getBoolean("jlox.census") ? new HeapCensus() : null;
+
+  static final String ENVIRONMENTS = "<environments>";
+  static final String FUNCTIONS = "<functions>";
+  static final String LISTS = "<lists>";
+
+  private static final LoxClass HEAP_STATS =
+      new LoxClass("HeapStats", null, new HashMap<>());
+  private static final LoxClass CLASS_STATS =
+      new LoxClass("ClassStats", null, new HashMap<>());
+  private static final LoxClass CLASSES =
+      new LoxClass("Classes", null, new HashMap<>());
+
+  /**
+   * Allocation counts for one kind of object.
+   * */
+  static class Counts {
+    final LongAdder total = new LongAdder();
+    final LongAdder live = new LongAdder();
+  }
+
+  private final Cleaner cleaner = Cleaner.create();
+  private final ConcurrentMap<String, Counts> counts = new ConcurrentHashMap<>();
+
+  void instance(LoxInstance instance) {
+    track(instance, instance.klass().name);
+  }
+
+  void environment(Environment environment) {
+    track(environment, ENVIRONMENTS);
+  }
+
+  void function(LoxFunction function) {
+    track(function, FUNCTIONS);
+  }
+
+  void list(LoxList list) {
+    track(list, LISTS);
+  }
+
+  private void track(Object object, String kind) {
+    Counts kindCounts = counts.computeIfAbsent(kind, key -> new Counts());
+    kindCounts.total.increment();
+    kindCounts.live.increment();
+    // The action must not refer to the object, or it never dies.
+    cleaner.register(object, kindCounts.live::decrement);
+  }
+
+  private Counts counts(String kind) {
+    return counts.getOrDefault(kind, new Counts());
+  }
+
+  /**
+   * Estimated bytes per kind (class name, {@link #ENVIRONMENTS},
+   * {@link #FUNCTIONS} or {@link #LISTS}) of everything reachable from
+   * the interpreter's globals, the scope it is currently running in and
+   * the scopes of the calls in progress.
+   * */
+  static Map<String, Long> footprint(Interpreter interpreter) {
+    Map<String, Long> bytes = new TreeMap<>();
+    Map<Object, Boolean> seen = new IdentityHashMap<>();
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(interpreter.globals);
+    pending.addAll(interpreter.callerEnvironments());
+    pending.push(interpreter.currentEnvironment());
+
+    while (!pending.isEmpty()) {
+      Object object = pending.pop();
+      if (seen.put(object, true) != null) continue;
+
+      if (object instanceof Environment) {
+        Environment environment = (Environment)object;
+        bytes.merge(ENVIRONMENTS, 16 + map(environment.values(), pending),
+            Long::sum);
+        if (environment.enclosing != null) pending.push(environment.enclosing);
+      } else if (object instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance)object;
+        bytes.merge(instance.klass().name,
+            24 + map(instance.fields(), pending), Long::sum);
+        pending.push(instance.klass());
+      } else if (object instanceof LoxFunction) {
+        bytes.merge(FUNCTIONS, 24L, Long::sum);
+        pending.push(((LoxFunction)object).closure());
+      } else if (object instanceof LoxList) {
+        LoxList list = (LoxList)object;
+        long listBytes = 24 + list.arrayBytes();
+        if (!list.isUnboxed()) {
+          for (int i = 0; i < list.size(); i++) {
+            listBytes += value(list.get(i), pending);
+          }
+        }
+        bytes.merge(LISTS, listBytes, Long::sum);
+      } else if (object instanceof LoxClass) {
+        LoxClass klass = (LoxClass)object;
+        pending.addAll(klass.methods().values());
+        if (klass.superclass != null) pending.push(klass.superclass);
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * A HashMap with its table and entries, plus the boxed values in it.
+   * Lox objects among the values are queued instead.
+   * */
+  private static long map(Map<String, Object> map, Deque<Object> pending) {
+    int capacity = 16;
+    while (capacity * 3 / 4 < map.size()) capacity *= 2;
+
+    long bytes = 48 + 16 + 4L * capacity + 32L * map.size();
+    for (Object value : map.values()) {
+      bytes += value(value, pending);
+    }
+    return bytes;
+  }
+
+  /**
+   * A boxed value held by a map or list, or 0 after queueing a Lox
+   * object.
+   * */
+  private static long value(Object value, Deque<Object> pending) {
+    if (value instanceof Double) return 16;
+    if (value instanceof String) return 40 + ((String)value).length();
+    if (value != null && !(value instanceof Boolean)) pending.push(value);
+    return 0;
+  }
+
+  /**
+   * The {@code heapStats()} native's result: {@code instances},
+   * {@code environments}, {@code functions} and {@code lists} each with
+   * {@code live}, {@code total} and {@code bytes}, and {@code classes}
+   * with one such entry per class name. Counts are nil unless the
+   * census is active.
+   * */
+  static LoxInstance stats(Interpreter interpreter) {
+    HeapCensus census = active;
+    Map<String, Long> bytes = footprint(interpreter);
+
+    Set<String> kinds = new TreeSet<>(bytes.keySet());
+    if (census != null) kinds.addAll(census.counts.keySet());
+    kinds.remove(ENVIRONMENTS);
+    kinds.remove(FUNCTIONS);
+    kinds.remove(LISTS);
+
+    LoxInstance classes = new LoxInstance(CLASSES);
+    long live = 0;
+    long total = 0;
+    long instanceBytes = 0;
+    for (String kind : kinds) {
+      Counts counts = census != null ? census.counts(kind) : null;
+      classes.fields().put(kind, entry(counts, bytes.getOrDefault(kind, 0L)));
+      instanceBytes += bytes.getOrDefault(kind, 0L);
+      if (counts != null) {
+        live += counts.live.sum();
+        total += counts.total.sum();
+      }
+    }
+
+    LoxInstance instances = new LoxInstance(CLASS_STATS);
+    instances.fields().put("live", census != null ? (double)live : null);
+    instances.fields().put("total", census != null ? (double)total : null);
+    instances.fields().put("bytes", (double)instanceBytes);
+
+    LoxInstance stats = new LoxInstance(HEAP_STATS);
+    stats.fields().put("instances", instances);
+    stats.fields().put("environments", entry(
+        census != null ? census.counts(ENVIRONMENTS) : null,
+        bytes.getOrDefault(ENVIRONMENTS, 0L)));
+    stats.fields().put("functions", entry(
+        census != null ? census.counts(FUNCTIONS) : null,
+        bytes.getOrDefault(FUNCTIONS, 0L)));
+    stats.fields().put("lists", entry(
+        census != null ? census.counts(LISTS) : null,
+        bytes.getOrDefault(LISTS, 0L)));
+    stats.fields().put("classes", classes);
+    return stats;
+  }
+
+  private static LoxInstance entry(Counts counts, long bytes) {
+    LoxInstance entry = new LoxInstance(CLASS_STATS);
+    entry.fields().put("live", counts != null ? (double)counts.live.sum() : null);
+    entry.fields().put("total", counts != null ? (double)counts.total.sum() : null);
+    entry.fields().put("bytes", (double)bytes);
+    return entry;
+  }
+
+  /**
+   * One line per kind of object, largest estimated footprint first.
+   * */
+  void writeReport(Writer writer, Interpreter interpreter) {
+    Map<String, Long> bytes = footprint(interpreter);
+    Map<String, Counts> all = new TreeMap<>(counts);
+
+    PrintWriter out = new PrintWriter(writer);
+    out.printf("%12s %12s %14s  %s%n", "live", "total", "reachable B", "kind");
+    all.entrySet().stream()
+        .sorted((a, b) -> Long.compare(bytes.getOrDefault(b.getKey(), 0L),
+                                       bytes.getOrDefault(a.getKey(), 0L)))
+        .forEach(entry -> out.printf("%12d %12d %14d  %s%n",
+            entry.getValue().live.sum(), entry.getValue().total.sum(),
+            bytes.getOrDefault(entry.getKey(), 0L), entry.getKey()));
+    out.flush();
+  }
+
+  /**
+   * @throws IOException If the file can't be written.
+   * */
+  void write(Path path, Interpreter interpreter) throws IOException {
+    try (Writer report = Files.newBufferedWriter(path)) {
+      writeReport(report, interpreter);
+    }
+  }
+}
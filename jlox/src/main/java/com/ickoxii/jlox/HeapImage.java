@@ -0,0 +1,524 @@
+package com.ickoxii.jlox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the state of an interpreter's global scope after running a
+ * prelude script, so later runs can start from the image instead of
+ * executing the prelude again.
+ *
+ * Everything reachable from {@code Interpreter.globals} is written
+ * out: environments, functions and their closures, classes,
+ * instances and lists. Functions point back at their declarations, so the
+ * prelude program itself is stored too, as a resolved
+ * {@link CompactAst}. A declaration is identified by its position in
+ * a pre-order walk of that program, which is the same before saving
+ * and after decoding.
+ *
+ * Objects are written in two passes because the graph has cycles
+ * (a function's closure usually holds the function itself). The
+ * first pass creates every object from the references it needs at
+ * construction time, which never form a cycle: an environment only
+ * needs its enclosing environment, a function its closure, a class
+ * its superclass and methods, an instance its class, a list nothing.
+ * The second pass fills in variables, fields and list elements. A list
+ * of numbers has no references, so its elements go out with it in the
+ * first pass, and it comes back unboxed; a boxed list stays boxed.
+ *
+ * Native functions are not saved. They are written by name and
+ * looked up again in the interpreter the image is loaded into, which
+ * must have one by the same name. Anything else, such as a channel or
+ * a task, can't be saved.
+ *
+ * Frozen instances and lists, and classes that freeze their instances
+ * (see {@link LoxInstance#freeze}), stay that way. Instances and lists
+ * are frozen again only after they are filled in.
+ * */
+final class HeapImage {
+  private static final int MAGIC = 0x4c4f5849;
+  private static final int VERSION = 3;
+
+  // Value tags.
+  private static final byte NIL = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte NUMBER = 2;
+  private static final byte STRING = 3;
+  private static final byte FUNCTION = 4;
+  private static final byte CLASS = 5;
+  private static final byte INSTANCE = 6;
+  private static final byte NATIVE = 7;
+  private static final byte LIST = 8;
+
+  private HeapImage() {}
+
+  /**
+   * Writes the globals of an interpreter that has just run the given
+   * (resolved) program.
+   *
+   * @throws IOException If writing fails or the heap holds a value
+   *                     that cannot be saved.
+   * */
+  static void write(Path path, List<Stmt> program, Interpreter interpreter)
+      throws IOException {
+    Writer writer = new Writer(program, interpreter.globals);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(path)))) {
+      writer.write(out);
+    }
+  }
+
+  /**
+   * Recreates the saved globals inside the given interpreter.
+   *
+   * @throws IOException If the file is missing or not a heap image, or
+   *                     it refers to a native function the interpreter
+   *                     doesn't have.
+   * */
+  static void load(Path path, Interpreter interpreter) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      new Reader(interpreter.globals).read(in, Files.size(path));
+    }
+  }
+
+  /**
+   * Collects function declarations in pre-order. Lox has no function
+   * expressions, so every declaration is reachable through statements.
+   * */
+  private static List<Stmt.Function> declarations(List<Stmt> program) {
+    List<Stmt.Function> functions = new ArrayList<>();
+    Deque<Stmt> pending = new ArrayDeque<>();
+    for (int i = program.size() - 1; i >= 0; --i) {
+      pending.push(program.get(i));
+    }
+
+    while (!pending.isEmpty()) {
+      List<? extends Stmt> nested = new ArrayList<>();
+      Stmt stmt = pending.pop();
+      if (stmt instanceof Stmt.Function) {
+        functions.add((Stmt.Function)stmt);
+        nested = ((Stmt.Function)stmt).body;
+      } else if (stmt instanceof Stmt.Class) {
+        nested = ((Stmt.Class)stmt).methods;
+      } else if (stmt instanceof Stmt.Block) {
+        nested = ((Stmt.Block)stmt).statements;
+      } else if (stmt instanceof Stmt.If) {
+        Stmt.If ifStmt = (Stmt.If)stmt;
+        List<Stmt> branches = new ArrayList<>();
+        branches.add(ifStmt.thenBranch);
+        if (ifStmt.elseBranch != null) branches.add(ifStmt.elseBranch);
+        nested = branches;
+      } else if (stmt instanceof Stmt.While) {
+        nested = List.of(((Stmt.While)stmt).body);
+      }
+
+      for (int i = nested.size() - 1; i >= 0; --i) {
+        pending.push(nested.get(i));
+      }
+    }
+
+    return functions;
+  }
+
+  /**
+   * Maps each kind of native function to the global name it is
+   * registered under in a fresh interpreter.
+   * */
+  private static Map<Class<?>, String> nativeNames() {
+    Map<Class<?>, String> names = new HashMap<>();
+    for (Map.Entry<String, Object> global :
+         new Interpreter().globals.values().entrySet()) {
+      names.put(global.getValue().getClass(), global.getKey());
+    }
+    return names;
+  }
+
+  private static void writeString(DataOutputStream out, String value)
+      throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class Writer {
+    private final List<Stmt> program;
+    private final Map<Stmt.Function, Integer> declarationIndex =
+        new IdentityHashMap<>();
+    private final Map<Class<?>, String> nativeNames = nativeNames();
+
+    private final List<Environment> environments = new ArrayList<>();
+    private final List<LoxFunction> functions = new ArrayList<>();
+    private final List<LoxClass> classes = new ArrayList<>();
+    private final List<LoxInstance> instances = new ArrayList<>();
+    private final List<LoxList> lists = new ArrayList<>();
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+
+    Writer(List<Stmt> program, Environment globals) throws IOException {
+      this.program = program;
+
+      List<Stmt.Function> declarations = declarations(program);
+      for (int i = 0; i < declarations.size(); ++i) {
+        declarationIndex.put(declarations.get(i), i);
+      }
+
+      collect(globals);
+
+      // Construction order: enclosing scopes and superclasses first.
+      environments.sort(Comparator.comparingInt(Writer::depth));
+      classes.sort(Comparator.comparingInt(Writer::depth));
+      number(environments);
+      number(functions);
+      number(classes);
+      number(instances);
+      number(lists);
+    }
+
+    private static int depth(Environment environment) {
+      int depth = 0;
+      for (Environment e = environment.enclosing; e != null; e = e.enclosing) {
+        depth++;
+      }
+      return depth;
+    }
+
+    private static int depth(LoxClass klass) {
+      int depth = 0;
+      for (LoxClass c = klass.superclass; c != null; c = c.superclass) {
+        depth++;
+      }
+      return depth;
+    }
+
+    private void number(List<?> objects) {
+      for (int i = 0; i < objects.size(); ++i) {
+        ids.put(objects.get(i), i);
+      }
+    }
+
+    /**
+     * Walks everything reachable from the global scope.
+     * */
+    private void collect(Environment globals) throws IOException {
+      Map<Object, Boolean> seen = new IdentityHashMap<>();
+      Deque<Object> pending = new ArrayDeque<>();
+      pending.push(globals);
+
+      while (!pending.isEmpty()) {
+        Object object = pending.pop();
+        if (seen.put(object, true) != null) continue;
+
+        if (object instanceof Environment) {
+          Environment environment = (Environment)object;
+          environments.add(environment);
+          if (environment.enclosing != null) pending.push(environment.enclosing);
+          pushValues(pending, environment.values().values());
+        } else if (object instanceof LoxFunction) {
+          LoxFunction function = (LoxFunction)object;
+          if (!declarationIndex.containsKey(function.declaration())) {
+            throw new IOException("Can't save " + function +
+                ": it was not declared by the prelude.");
+          }
+          functions.add(function);
+          pending.push(function.closure());
+        } else if (object instanceof LoxClass) {
+          LoxClass klass = (LoxClass)object;
+          classes.add(klass);
+          if (klass.superclass != null) pending.push(klass.superclass);
+          for (LoxFunction method : klass.methods().values()) {
+            pending.push(method);
+          }
+        } else if (object instanceof LoxInstance) {
+          LoxInstance instance = (LoxInstance)object;
+          instances.add(instance);
+          pending.push(instance.klass());
+          pushValues(pending, instance.fields().values());
+        } else if (object instanceof LoxList) {
+          LoxList list = (LoxList)object;
+          lists.add(list);
+          if (!list.isUnboxed()) pushValues(pending, elements(list));
+        }
+      }
+    }
+
+    private static List<Object> elements(LoxList list) {
+      List<Object> elements = new ArrayList<>(list.size());
+      for (int i = 0; i < list.size(); i++) elements.add(list.get(i));
+      return elements;
+    }
+
+    private void pushValues(Deque<Object> pending, Iterable<Object> values)
+        throws IOException {
+      for (Object value : values) {
+        if (value == null || value instanceof Boolean ||
+            value instanceof Double || value instanceof String) {
+          continue;
+        }
+
+        if (value instanceof LoxFunction || value instanceof LoxClass ||
+            value instanceof LoxInstance || value instanceof LoxList) {
+          pending.push(value);
+        } else if (!nativeNames.containsKey(value.getClass())) {
+          throw new IOException("Can't save " + Interpreter.stringify(value)
+              + ": an image holds only plain values, Lox functions, classes,"
+              + " instances and lists.");
+        }
+      }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      CompactAst.encode(program).write(out);
+
+      out.writeInt(environments.size());
+      for (Environment environment : environments) {
+        out.writeInt(environment.enclosing == null
+            ? -1 : ids.get(environment.enclosing));
+      }
+
+      out.writeInt(functions.size());
+      for (LoxFunction function : functions) {
+        out.writeInt(declarationIndex.get(function.declaration()));
+        out.writeInt(ids.get(function.closure()));
+        out.writeBoolean(function.isInitializer());
+      }
+
+      out.writeInt(classes.size());
+      for (LoxClass klass : classes) {
+        writeString(out, klass.name);
+        out.writeInt(klass.superclass == null
+            ? -1 : ids.get(klass.superclass));
+        out.writeBoolean(klass.freezesInstances());
+        out.writeInt(klass.methods().size());
+        for (Map.Entry<String, LoxFunction> method :
+             klass.methods().entrySet()) {
+          writeString(out, method.getKey());
+          out.writeInt(ids.get(method.getValue()));
+        }
+      }
+
+      out.writeInt(instances.size());
+      for (LoxInstance instance : instances) {
+        out.writeInt(ids.get(instance.klass()));
+        out.writeBoolean(instance.isFrozen());
+      }
+
+      out.writeInt(lists.size());
+      for (LoxList list : lists) {
+        out.writeBoolean(list.isUnboxed());
+        out.writeBoolean(list.isFrozen());
+        out.writeInt(list.size());
+        if (list.isUnboxed()) {
+          for (int i = 0; i < list.size(); i++) {
+            out.writeDouble((double)list.get(i));
+          }
+        }
+      }
+
+      for (Environment environment : environments) {
+        writeValues(out, environment.values());
+      }
+      for (LoxInstance instance : instances) {
+        writeValues(out, instance.fields());
+      }
+      for (LoxList list : lists) {
+        if (list.isUnboxed()) continue;
+        for (int i = 0; i < list.size(); i++) writeValue(out, list.get(i));
+      }
+    }
+
+    private void writeValues(DataOutputStream out, Map<String, Object> values)
+        throws IOException {
+      out.writeInt(values.size());
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        writeString(out, entry.getKey());
+        writeValue(out, entry.getValue());
+      }
+    }
+
+    private void writeValue(DataOutputStream out, Object value)
+        throws IOException {
+      if (value == null) {
+        out.writeByte(NIL);
+      } else if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean)value);
+      } else if (value instanceof Double) {
+        out.writeByte(NUMBER);
+        out.writeDouble((Double)value);
+      } else if (value instanceof String) {
+        out.writeByte(STRING);
+        writeString(out, (String)value);
+      } else if (value instanceof LoxFunction) {
+        out.writeByte(FUNCTION);
+        out.writeInt(ids.get(value));
+      } else if (value instanceof LoxClass) {
+        out.writeByte(CLASS);
+        out.writeInt(ids.get(value));
+      } else if (value instanceof LoxInstance) {
+        out.writeByte(INSTANCE);
+        out.writeInt(ids.get(value));
+      } else if (value instanceof LoxList) {
+        out.writeByte(LIST);
+        out.writeInt(ids.get(value));
+      } else {
+        out.writeByte(NATIVE);
+        writeString(out, nativeNames.get(value.getClass()));
+      }
+    }
+  }
+
+  private static class Reader {
+    private final Environment globals;
+    private final Map<String, Object> natives;
+    private Environment[] environments;
+    private LoxFunction[] functions;
+    private LoxClass[] classes;
+    private LoxInstance[] instances;
+    private LoxList[] lists;
+
+    Reader(Environment globals) {
+      this.globals = globals;
+      this.natives = new HashMap<>(globals.values());
+    }
+
+    void read(DataInputStream in, long limit) throws IOException {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a Lox heap image.");
+      }
+
+      List<Stmt> program = CompactAst.read(in, limit).statements();
+      List<Stmt.Function> declarations = declarations(program);
+
+      environments = new Environment[in.readInt()];
+      for (int i = 0; i < environments.length; ++i) {
+        int enclosing = in.readInt();
+        environments[i] = enclosing == -1
+            ? globals : new Environment(environments[enclosing]);
+      }
+
+      functions = new LoxFunction[in.readInt()];
+      for (int i = 0; i < functions.length; ++i) {
+        Stmt.Function declaration = declarations.get(in.readInt());
+        Environment closure = environments[in.readInt()];
+        functions[i] = new LoxFunction(declaration, closure, in.readBoolean());
+      }
+
+      classes = new LoxClass[in.readInt()];
+      for (int i = 0; i < classes.length; ++i) {
+        String name = readString(in);
+        int superclass = in.readInt();
+        boolean freezesInstances = in.readBoolean();
+        Map<String, LoxFunction> methods = new HashMap<>();
+        int count = in.readInt();
+        for (int j = 0; j < count; ++j) {
+          String method = readString(in);
+          methods.put(method, functions[in.readInt()]);
+        }
+        classes[i] = new LoxClass(name,
+            superclass == -1 ? null : classes[superclass], methods);
+        if (freezesInstances) classes[i].freezeInstances();
+      }
+
+      instances = new LoxInstance[in.readInt()];
+      boolean[] frozen = new boolean[instances.length];
+      for (int i = 0; i < instances.length; ++i) {
+        instances[i] = new LoxInstance(classes[in.readInt()]);
+        frozen[i] = in.readBoolean();
+      }
+
+      // Boxed lists own these arrays, which are filled in below.
+      lists = new LoxList[in.readInt()];
+      Object[][] boxed = new Object[lists.length][];
+      boolean[] frozenLists = new boolean[lists.length];
+      for (int i = 0; i < lists.length; ++i) {
+        boolean unboxed = in.readBoolean();
+        frozenLists[i] = in.readBoolean();
+        int size = in.readInt();
+        if (size < 0) throw new IOException("Bad list size " + size + ".");
+        if (unboxed) {
+          double[] numbers = new double[Math.max(LoxList.INITIAL_CAPACITY, size)];
+          for (int j = 0; j < size; j++) numbers[j] = in.readDouble();
+          lists[i] = new LoxList(numbers, null, size);
+        } else {
+          boxed[i] = new Object[Math.max(LoxList.INITIAL_CAPACITY, size)];
+          lists[i] = new LoxList(null, boxed[i], size);
+        }
+      }
+
+      for (Environment environment : environments) {
+        readValues(in, environment.values());
+      }
+      for (LoxInstance instance : instances) {
+        readValues(in, instance.fields());
+      }
+      for (int i = 0; i < lists.length; ++i) {
+        if (boxed[i] == null) continue;
+        for (int j = 0; j < lists[i].size(); j++) boxed[i][j] = readValue(in);
+      }
+      for (int i = 0; i < instances.length; ++i) {
+        if (frozen[i]) LoxInstance.freeze(instances[i]);
+      }
+      for (int i = 0; i < lists.length; ++i) {
+        if (frozenLists[i]) lists[i].freeze();
+      }
+    }
+
+    private void readValues(DataInputStream in, Map<String, Object> values)
+        throws IOException {
+      int count = in.readInt();
+      for (int i = 0; i < count; ++i) {
+        String name = readString(in);
+        values.put(name, readValue(in));
+      }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NIL: return null;
+        case BOOLEAN: return in.readBoolean();
+        case NUMBER: return in.readDouble();
+        case STRING: return readString(in);
+        case FUNCTION: return functions[in.readInt()];
+        case CLASS: return classes[in.readInt()];
+        case INSTANCE: return instances[in.readInt()];
+        case LIST: return lists[in.readInt()];
+        case NATIVE: return readNative(in);
+      }
+
+      throw new IOException("Bad value tag " + tag + ".");
+    }
+
+    private Object readNative(DataInputStream in) throws IOException {
+      String name = readString(in);
+      Object value = natives.get(name);
+      if (!(value instanceof LoxCallable)) {
+        throw new IOException("The image uses native function '" + name
+            + "', which this interpreter doesn't have.");
+      }
+      return value;
+    }
+  }
+}
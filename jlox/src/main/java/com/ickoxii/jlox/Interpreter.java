@@ -1,20 +1,109 @@
 package com.ickoxii.jlox;
 
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.ickoxii.jlox.enums.TokenType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 class Interpreter implements Expr.Visitor<Object>,
                              Stmt.Visitor<Void> {
-  final Environment globals = new Environment();
-  private Environment environment = globals;
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  final Environment globals;
+  private Environment environment;
+  private PrintWriter out;
+
+  /**
+   * Set by {@code --profile}. Null unless profiling, in which case
+   * every Lox call is timed.
+   * */
+  Profiler profiler;
+
+  /**
+   * Set by {@code --sample}. Null unless sampling, in which case calls
+   * and probes on every statement keep its shadow stack current.
+   * */
+  Sampler sampler;
+
+  /**
+   * Set by {@code --debug}. Null unless debugging, in which case calls
+   * are reported to it and it probes the statements it may stop at.
+   * */
+  Debugger debugger;
+
+  /**
+   * Names methods in profiles and JFR events.
+   * */
+  final FunctionNames names;
+
+  /**
+   * Tasks started by {@code spawn} that haven't finished, shared with
+   * the interpreters they run on.
+   * */
+  private final Set<LoxTask> tasks;
+
+  /**
+   * Forks running a chunk of a parallel native, shared the same way, so
+   * {@link #cancel} reaches them too.
+   * */
+  private final Set<Interpreter> workers;
+
+  // Limits on a run, checked at safepoints: every loop iteration and
+  // every call. See setLimits.
+  static final int CLOCK_INTERVAL = 1024;
+  private long maxSteps = 0;
+  private int maxDepth = 0;
+  private long timeLimitNanos = 0;
+  private long deadline = 0;
+  private int depth = 0;
+  private volatile boolean cancelled = false;
+
+  // The environment each Lox call in progress was made from, so the
+  // heap census can see the scopes of the callers. Slots at and above
+  // depth are null.
+  private Environment[] callers = new Environment[16];
+
+  // Steps are counted in a plain field and added to the run's total,
+  // which forks share, every CLOCK_INTERVAL steps and when a fork is
+  // done. stepsBefore is the total as of this interpreter's last flush,
+  // so other threads' steps show up at the next one.
+  private AtomicLong runSteps = new AtomicLong();
+  private long stepsBefore = 0;
+  private long steps = 0;
+
+  // Null unless runs have an allocation limit. See allocate.
+  private AllocationBudget budget;
+  private long allocated = 0;
+
+  /**
+   * Set while a TenantScheduler runs this interpreter, which then
+   * checks its time slice at safepoints.
+   * */
+  TenantScheduler.Tenant tenant;
 
   Interpreter() {
+    this(System.out);
+  }
+
+  /**
+   * @param out Where {@code print} statements write.
+   * */
+  Interpreter(PrintStream out) {
+    this.globals = new Environment();
+    this.environment = globals;
+    this.out = new PrintWriter(out, true);
+    this.names = new FunctionNames();
+    this.tasks = ConcurrentHashMap.newKeySet();
+    this.workers = ConcurrentHashMap.newKeySet();
+
     globals.define("clock", new LoxCallable() {
       @Override
       public int arity() { return 0; }
@@ -28,15 +117,798 @@ class Interpreter implements Expr.Visitor<Object>,
       @Override
       public String toString() { return "<native fn>"; }
     });
+
+    // Nanoseconds from an arbitrary origin. See LoxBench.clockNanos.
+    globals.define("clockNanos", new LoxCallable() {
+      @Override
+      public int arity() { return 0; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        return LoxBench.clockNanos();
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // bench(fn, iterations): see LoxBench.
+    globals.define("bench", new LoxCallable() {
+      @Override
+      public int arity() { return 2; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        Object fn = arguments.get(0);
+        if (!(fn instanceof LoxCallable) || ((LoxCallable)fn).arity() != 0) {
+          throw new RuntimeError(null,
+              "First argument to bench must be a function with no parameters.");
+        }
+
+        return LoxBench.run(interpreter, (LoxCallable)fn,
+            LoxBench.iterations(arguments.get(1)));
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // Estimated memory use; see HeapCensus.
+    globals.define("heapStats", new LoxCallable() {
+      @Override
+      public int arity() { return 0; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        return HeapCensus.stats(interpreter);
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // spawn(fn): runs fn, which takes no arguments, on a thread of its
+    // own. See LoxTask.
+    globals.define("spawn", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        Object fn = arguments.get(0);
+        if (!(fn instanceof LoxCallable) || ((LoxCallable)fn).arity() != 0) {
+          throw new RuntimeError(null,
+              "Can only spawn a function with no parameters.");
+        }
+        return interpreter.spawn((LoxCallable)fn);
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // join(task): waits for a spawned task and returns what its
+    // function returned.
+    globals.define("join", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        Object task = arguments.get(0);
+        if (!(task instanceof LoxTask)) {
+          throw new RuntimeError(null, "Can only join a task.");
+        }
+        interpreter.releaseSlot();
+        try {
+          return ((LoxTask)task).join();
+        } finally {
+          interpreter.acquireSlot();
+        }
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // list(): a new, empty list. See LoxList.
+    globals.define("list", new LoxCallable() {
+      @Override
+      public int arity() { return 0; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        return LoxList.create(interpreter);
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // push(list, value): appends to the end of the list.
+    globals.define("push", new LoxCallable() {
+      @Override
+      public int arity() { return 2; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxList.check(arguments.get(0)).add(interpreter, arguments.get(1));
+        return null;
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // pop(list): removes the last element and returns it.
+    globals.define("pop", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        return LoxList.check(arguments.get(0)).pop();
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // get(list, index): the element at a zero-based index.
+    globals.define("get", new LoxCallable() {
+      @Override
+      public int arity() { return 2; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxList list = LoxList.check(arguments.get(0));
+        return list.get(list.index(arguments.get(1)));
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // slice(list, start, end): a new list of the elements from index
+    // start up to but not including end.
+    globals.define("slice", new LoxCallable() {
+      @Override
+      public int arity() { return 3; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxList list = LoxList.check(arguments.get(0));
+        return list.slice(interpreter, list.bound(arguments.get(1)),
+                          list.bound(arguments.get(2)));
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // length(list): how many elements the list has.
+    globals.define("length", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        return (double)LoxList.check(arguments.get(0)).size();
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // parallelMap(list, fn): a new list of fn(element) for every element,
+    // computed on the fork-join pool. See LoxParallel.
+    globals.define("parallelMap", new LoxCallable() {
+      @Override
+      public int arity() { return 2; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxList list = LoxList.check(arguments.get(0));
+        Object fn = arguments.get(1);
+        if (!(fn instanceof LoxCallable) || ((LoxCallable)fn).arity() != 1) {
+          throw new RuntimeError(null,
+              "Second argument to parallelMap must be a function of one parameter.");
+        }
+        return LoxParallel.map(interpreter, list, (LoxCallable)fn);
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // parallelFilter(list, fn): a new list of the elements for which fn
+    // returns something truthy.
+    globals.define("parallelFilter", new LoxCallable() {
+      @Override
+      public int arity() { return 2; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxList list = LoxList.check(arguments.get(0));
+        Object fn = arguments.get(1);
+        if (!(fn instanceof LoxCallable) || ((LoxCallable)fn).arity() != 1) {
+          throw new RuntimeError(null,
+              "Second argument to parallelFilter must be a function of one parameter.");
+        }
+        return LoxParallel.filter(interpreter, list, (LoxCallable)fn);
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // parallelReduce(list, fn, initial): combines initial and the elements
+    // with fn, which must be associative.
+    globals.define("parallelReduce", new LoxCallable() {
+      @Override
+      public int arity() { return 3; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxList list = LoxList.check(arguments.get(0));
+        Object fn = arguments.get(1);
+        if (!(fn instanceof LoxCallable) || ((LoxCallable)fn).arity() != 2) {
+          throw new RuntimeError(null,
+              "Second argument to parallelReduce must be a function of two parameters.");
+        }
+        return LoxParallel.reduce(interpreter, list, (LoxCallable)fn,
+            arguments.get(2));
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // channel(capacity): a bounded channel for passing values between
+    // tasks. See LoxChannel.
+    globals.define("channel", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        Object capacity = arguments.get(0);
+        if (!(capacity instanceof Double) || (double)capacity < 1
+            || (double)capacity > Integer.MAX_VALUE
+            || (double)capacity != Math.floor((double)capacity)) {
+          throw new RuntimeError(null,
+              "Channel capacity must be a positive whole number.");
+        }
+        return LoxChannel.create(interpreter, (int)(double)capacity);
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // send(channel, value): waits while the channel is full.
+    globals.define("send", new LoxCallable() {
+      @Override
+      public int arity() { return 2; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxChannel channel = LoxChannel.check(arguments.get(0));
+        interpreter.releaseSlot();
+        try {
+          channel.send(interpreter, arguments.get(1));
+        } finally {
+          interpreter.acquireSlot();
+        }
+        return null;
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // trySend(channel, value): false instead of waiting if the channel is
+    // full.
+    globals.define("trySend", new LoxCallable() {
+      @Override
+      public int arity() { return 2; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        return LoxChannel.check(arguments.get(0)).trySend(interpreter,
+            arguments.get(1));
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // receive(channel): waits for a value, or nil once the channel is
+    // closed and empty.
+    globals.define("receive", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxChannel channel = LoxChannel.check(arguments.get(0));
+        interpreter.releaseSlot();
+        try {
+          return channel.receive(interpreter);
+        } finally {
+          interpreter.acquireSlot();
+        }
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // close(channel): no more sends; receivers drain what is left.
+    globals.define("close", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxChannel.check(arguments.get(0)).close();
+        return null;
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // select(channels): receives from whichever channel in a list has a
+    // value first.
+    globals.define("select", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        LoxList list = LoxList.check(arguments.get(0));
+        if (list.size() == 0) {
+          throw new RuntimeError(null, "Can't select from no channels.");
+        }
+
+        List<LoxChannel> channels = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+          channels.add(LoxChannel.check(list.get(i)));
+        }
+        interpreter.releaseSlot();
+        try {
+          return LoxChannel.select(interpreter, channels);
+        } finally {
+          interpreter.acquireSlot();
+        }
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // freeze(value): makes an instance or list, and everything reachable
+    // from it, immutable, or freezes every instance of a class made from
+    // now on. Returns the value. See LoxInstance.freeze.
+    globals.define("freeze", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        return LoxInstance.freeze(arguments.get(0));
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // isFrozen(value): whether a value can no longer be changed. Numbers,
+    // strings, booleans, nil and classes, which have nothing to change,
+    // always count as frozen.
+    globals.define("isFrozen", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        Object value = arguments.get(0);
+        if (value instanceof LoxInstance) return ((LoxInstance)value).isFrozen();
+        if (value instanceof LoxList) return ((LoxList)value).isFrozen();
+        return value == null || value instanceof Double
+            || value instanceof String || value instanceof Boolean
+            || value instanceof LoxClass;
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // freezesInstances(class): whether new instances of the class are
+    // frozen once initialized, because it or a superclass was frozen.
+    globals.define("freezesInstances", new LoxCallable() {
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        Object klass = arguments.get(0);
+        if (!(klass instanceof LoxClass)) {
+          throw new RuntimeError(null, "Expected a class.");
+        }
+        return ((LoxClass)klass).freezesInstances();
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+
+    // Consumes a value so that an optimizer can't treat the code that
+    // computed it as dead.
+    globals.define("blackhole", new LoxCallable() {
+      private volatile Object sink;
+
+      @Override
+      public int arity() { return 1; }
+
+      @Override
+      public Object call(Interpreter interpreter,
+                         List<Object> arguments) {
+        sink = arguments.get(0);
+        return null;
+      }
+
+      @Override
+      public String toString() { return "<native fn>"; }
+    });
+  }
+
+  /**
+   * An interpreter for a spawned task or parallel worker. It shares the
+   * globals, output, names and allocation budget, and counts against the
+   * same step limit and deadline as the run that started it. It has its
+   * own current environment and call depth.
+   *
+   * A tenant's fork is a tenant of its own, and only runs while it
+   * holds a slot: see {@link #acquireSlot}.
+   *
+   * The profiler, sampler and debugger aren't passed on. Their probes
+   * stay in the shared tree, but only fire for the interpreter that
+   * installed them (see {@link Probe}), so tasks run past them unseen.
+   * */
+  private Interpreter(Interpreter parent) {
+    this.globals = parent.globals;
+    this.environment = globals;
+    this.out = parent.out;
+    this.names = parent.names;
+    this.tasks = parent.tasks;
+    this.workers = parent.workers;
+    this.maxSteps = parent.maxSteps;
+    this.maxDepth = parent.maxDepth;
+    this.timeLimitNanos = parent.timeLimitNanos;
+    this.deadline = parent.deadline;
+    this.runSteps = parent.runSteps;
+    this.stepsBefore = runSteps.get();
+    this.budget = parent.budget;
+    this.tenant = parent.tenant != null ? parent.tenant.fork() : null;
+  }
+
+  /**
+   * A new interpreter for running Lox code on another thread.
+   * */
+  Interpreter fork() {
+    return new Interpreter(this);
+  }
+
+  /**
+   * A fork for a parallel worker to call Lox code on, registered so
+   * that cancelling the run stops it, and holding a tenant slot. Must
+   * be matched by {@link #endWorker} on the fork.
+   * */
+  Interpreter beginWorker() {
+    Interpreter worker = fork();
+    workers.add(worker);
+    // The caller is waiting on the pool, not at a safepoint, so a
+    // cancel that came before the fork was registered is still set.
+    if (cancelled) worker.stop();
+    worker.acquireSlot();
+    return worker;
+  }
+
+  void endWorker() {
+    flushSteps();
+    releaseSlot();
+    workers.remove(this);
+  }
+
+  /**
+   * Starts a function with no parameters on a new thread, in an
+   * interpreter of its own.
+   * */
+  LoxTask spawn(LoxCallable function) {
+    LoxTask task = new LoxTask(fork(), function);
+    tasks.add(task);
+    Thread thread = LoxThreads.FACTORY.newThread(() -> {
+      try {
+        task.run();
+      } finally {
+        tasks.remove(task);
+      }
+    });
+    thread.setName("jlox-task");
+    thread.start();
+    return task;
+  }
+
+  /**
+   * Waits until no spawned task is running, cancelling them first if
+   * asked to.
+   * */
+  private void awaitTasks(boolean cancel) {
+    if (tasks.isEmpty()) return;
+
+    releaseSlot();
+    try {
+      while (!tasks.isEmpty()) {
+        if (cancel) {
+          for (Interpreter worker : workers) worker.stop();
+        }
+        for (LoxTask task : tasks) {
+          if (cancel) task.cancel();
+          task.await();
+        }
+      }
+    } finally {
+      acquireSlot();
+    }
+  }
+
+  /**
+   * Under a {@link TenantScheduler}, waits for a slot to run in. A fork
+   * calls this before running any Lox code and {@link #releaseSlot}
+   * when done. A native that blocks does the opposite around its wait,
+   * so a tenant waiting on another thread doesn't keep a slot from
+   * those that could run.
+   * */
+  void acquireSlot() {
+    if (tenant != null) tenant.acquire();
+  }
+
+  void releaseSlot() {
+    if (tenant != null) tenant.release();
+  }
+
+  /**
+   * The innermost scope of whatever is running now.
+   * */
+  Environment currentEnvironment() {
+    return environment;
+  }
+
+  /**
+   * Redirects {@code print} statements.
+   * */
+  void setOut(Writer out) {
+    this.out = out instanceof PrintWriter
+        ? (PrintWriter)out : new PrintWriter(out, true);
+  }
+
+  /**
+   * Limits for each run from now on. Zero means no limit.
+   *
+   * @param steps Loop iterations plus calls.
+   * @param depth Lox calls in progress at once.
+   * @param timeNanos Wall-clock time, checked every
+   *                  {@link #CLOCK_INTERVAL} steps.
+   * */
+  void setLimits(long steps, int depth, long timeNanos) {
+    this.maxSteps = steps;
+    this.maxDepth = depth;
+    this.timeLimitNanos = timeNanos;
+  }
+
+  /**
+   * A limit on the bytes each run from now on may allocate, or zero
+   * for none. See AllocationBudget.
+   * */
+  void setAllocationLimit(long bytes) {
+    budget = bytes > 0 ? new AllocationBudget(bytes) : null;
+  }
+
+  /**
+   * Starts the step count, the clock and the allocation budget for a
+   * new run.
+   * */
+  void beginRun() {
+    runSteps = new AtomicLong();
+    stepsBefore = 0;
+    steps = 0;
+    allocated = 0;
+    if (budget != null) budget.reset();
+    deadline = timeLimitNanos > 0 ? System.nanoTime() + timeLimitNanos : 0;
+  }
+
+  /**
+   * Makes the running program (or the next one, if none is running)
+   * fail at its next safepoint, along with every task and parallel
+   * worker it started. Safe to call from any thread.
+   * */
+  void cancel() {
+    stop();
+    for (LoxTask task : tasks) task.cancel();
+    for (Interpreter worker : workers) worker.stop();
+  }
+
+  /**
+   * Like {@link #cancel}, but leaves spawned tasks alone.
+   * */
+  void stop() {
+    cancelled = true;
+  }
+
+  /**
+   * Counts a step and checks the limits. Throws without a line when
+   * {@code line} is unknown, for the call site to fill in.
+   * */
+  void safepoint(int line) {
+    if (cancelled) {
+      cancelled = false;
+      halt(line, "Execution cancelled.");
+    }
+
+    steps++;
+    if (maxSteps > 0 && stepsBefore + steps > maxSteps) {
+      halt(line, "Step limit exceeded.");
+    }
+    if (steps == CLOCK_INTERVAL) {
+      flushSteps();
+      if (deadline != 0 && System.nanoTime() - deadline > 0) {
+        halt(line, "Time limit exceeded.");
+      }
+      if (tenant != null) tenant.checkSlice();
+    }
+  }
+
+  /**
+   * Adds the steps counted since the last flush to the run's total. A
+   * fork calls this when it is done, so short-lived workers count too.
+   * */
+  void flushSteps() {
+    if (LoxMetrics.enabled) LoxMetrics.STEPS.add(steps);
+    stepsBefore = runSteps.addAndGet(steps);
+    steps = 0;
+  }
+
+  /**
+   * A safepoint for natives that block, to call every so often while
+   * they wait. Checks for cancellation and the time limit without
+   * counting a step.
+   * */
+  void waitpoint() {
+    if (cancelled) {
+      cancelled = false;
+      halt(0, "Execution cancelled.");
+    }
+    if (deadline != 0 && System.nanoTime() - deadline > 0) {
+      halt(0, "Time limit exceeded.");
+    }
+  }
+
+  /**
+   * The safepoint at the start of a Lox call. Every call that gets
+   * past it must be matched by {@link #exitCall}.
+   * */
+  void enterCall() {
+    safepoint(0);
+    if (maxDepth > 0 && depth >= maxDepth) {
+      halt(0, "Call depth limit exceeded.");
+    }
+    if (depth == callers.length) {
+      callers = Arrays.copyOf(callers, depth * 2);
+    }
+    callers[depth++] = environment;
+  }
+
+  void exitCall() {
+    callers[--depth] = null;
+  }
+
+  /**
+   * The environments the Lox calls in progress were made from, outermost
+   * first.
+   * */
+  List<Environment> callerEnvironments() {
+    return Arrays.asList(callers).subList(0, depth);
+  }
+
+  /**
+   * Charges an allocation against the budget, if there is one.
+   * Like {@link #safepoint}, throws without a line when {@code line}
+   * is unknown.
+   * */
+  void allocate(long bytes, int line) {
+    if (budget == null) return;
+
+    allocated += bytes;
+    if (allocated >= AllocationBudget.BATCH) {
+      long batch = allocated;
+      allocated = 0;
+      if (!budget.charge(batch)) halt(line, "Allocation limit exceeded.");
+    }
+  }
+
+  private static void halt(int line, String message) {
+    throw new RuntimeError(line, message);
   }
 
+  /**
+   * Runs a resolved program, then waits for any tasks it spawned. A
+   * RuntimeError stops the program and is left to the caller to
+   * report.
+   * */
   void interpret(List<Stmt> statements) {
+    if (sampler != null) statements = sampler.instrument(statements, this);
+    if (debugger != null) statements = debugger.attach(statements);
+    beginRun();
+
+    long start = LoxMetrics.start();
+    Object event = LoxEvents.startPhase("interpret");
+    boolean finished = false;
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
-    } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      finished = true;
+    } finally {
+      // A run isn't over until its tasks are. If it failed, they are
+      // stopped rather than waited out.
+      awaitTasks(!finished);
+      flushSteps();
+      LoxEvents.end(event);
+      LoxMetrics.time(LoxMetrics.INTERPRET_NANOS, start);
+    }
+  }
+
+  /**
+   * Runs one call from outside any program, as a run of its own: with
+   * fresh limits, and waiting for any tasks it spawned the same way
+   * {@link #interpret} does.
+   * */
+  Object callFromHost(LoxCallable function, List<Object> arguments) {
+    beginRun();
+
+    boolean finished = false;
+    try {
+      Object result = function.call(this, arguments);
+      finished = true;
+      return result;
+    } finally {
+      awaitTasks(!finished);
+      flushSteps();
     }
   }
 
@@ -48,17 +920,6 @@ class Interpreter implements Expr.Visitor<Object>,
     stmt.accept(this);
   }
 
-  /**
-   * We could store resolution information in the syntax tree node
-   * itself, but then we would have to change our syntax tree generator.
-   *
-   * Instead, we store it in a map that associates each syntax tree
-   * node with its resolved data.
-   * */
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
-  }
-
   void executeBlock(List<Stmt> statements,
                     Environment environment) {
     Environment previous = this.environment;
@@ -78,6 +939,7 @@ class Interpreter implements Expr.Visitor<Object>,
    * */
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
+    allocate(AllocationBudget.ENVIRONMENT, stmt.line);
     executeBlock(stmt.statements, new Environment(environment));
     return null;
   }
@@ -109,6 +971,13 @@ class Interpreter implements Expr.Visitor<Object>,
       }
     }
 
+    long bytes = AllocationBudget.VARIABLE
+        + AllocationBudget.FUNCTION * stmt.methods.size();
+    if (stmt.superclass != null) {
+      bytes += AllocationBudget.ENVIRONMENT + AllocationBudget.VARIABLE;
+    }
+    allocate(bytes, stmt.name.line);
+
     environment.define(stmt.name.lexeme, null);
 
     if (stmt.superclass != null) {
@@ -121,6 +990,8 @@ class Interpreter implements Expr.Visitor<Object>,
      * its runtime representation. We need to do that for the methods
      * contained in the class as well.
      * */
+    names.declare(stmt);
+
     Map<String, LoxFunction> methods = new HashMap<>();
     for (Stmt.Function method : stmt.methods) {
       LoxFunction function = new LoxFunction(method, environment,
@@ -136,6 +1007,17 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     environment.assign(stmt.name, klass);
+
+    if (LoxEvents.enabled(LoxEvents.CLASS_DEFINITION)) {
+      LoxEvents.ClassDefinition event = new LoxEvents.ClassDefinition();
+      if (event.shouldCommit()) {
+        event.name = klass.name;
+        event.superclass = superclass != null ? ((LoxClass)superclass).name : null;
+        event.methods = methods.size();
+        event.line = stmt.name.line;
+        event.commit();
+      }
+    }
     return null;
   }
 
@@ -177,7 +1059,11 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     Object value = evaluate(expr.value);
-    ((LoxInstance)object).set(expr.name, value);
+    LoxInstance instance = (LoxInstance)object;
+    if (budget != null && !instance.fields().containsKey(expr.name.lexeme)) {
+      allocate(AllocationBudget.FIELD, expr.name.line);
+    }
+    instance.set(expr.name, value);
     return value;
   }
 
@@ -192,7 +1078,7 @@ class Interpreter implements Expr.Visitor<Object>,
    * */
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
+    int distance = expr.depth;
     LoxClass superclass = (LoxClass)environment.getAt(
         distance, "super");
 
@@ -206,6 +1092,7 @@ class Interpreter implements Expr.Visitor<Object>,
           "Undefine property '" + expr.method.lexeme + "'.");
     }
 
+    allocate(AllocationBudget.BOUND_METHOD, expr.method.line);
     return method.bind(object);
   }
 
@@ -246,10 +1133,14 @@ class Interpreter implements Expr.Visitor<Object>,
     return lookUpVariable(expr.name, expr);
   }
 
+  /**
+   * The Resolver stores how many scopes away each variable lives
+   * directly on the syntax tree node. A depth of -1 means the
+   * variable was not found in any local scope, so it must be global.
+   * */
   private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if(distance != null) {
-      return environment.getAt(distance, name.lexeme);
+    if(expr.depth >= 0) {
+      return environment.getAt(expr.depth, name.lexeme);
     } else {
       return globals.get(name);
     }
@@ -293,7 +1184,9 @@ class Interpreter implements Expr.Visitor<Object>,
 
         /** Allow for concatenation of strings */
         if (left instanceof String && right instanceof String) {
-          return (String) left + (String)right;
+          String result = (String) left + (String)right;
+          allocate(AllocationBudget.string(result), expr.operator.line);
+          return result;
         }
 
         throw new RuntimeError(expr.operator,
@@ -331,14 +1224,28 @@ class Interpreter implements Expr.Visitor<Object>,
           arguments.size() + " instead.");
     }
 
-    return function.call(this, arguments);
+    try {
+      return function.call(this, arguments);
+    } catch (RuntimeError error) {
+      // Natives don't know where they were called from, so they throw
+      // without a line and the call site fills it in.
+      if (error.line > 0) throw error;
+      throw new RuntimeError(expr.paren, error.getMessage());
+    }
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     Object object = evaluate(expr.object);
     if (object instanceof LoxInstance) {
-      return ((LoxInstance) object).get(expr.name);
+      LoxInstance instance = (LoxInstance)object;
+      Object value = instance.get(expr.name);
+      // A method looked up on an instance is bound to it on the spot.
+      if (budget != null && value instanceof LoxFunction
+          && !instance.fields().containsKey(expr.name.lexeme)) {
+        allocate(AllocationBudget.BOUND_METHOD, expr.name.line);
+      }
+      return value;
     }
 
     throw new RuntimeError(expr.name,
@@ -353,6 +1260,7 @@ class Interpreter implements Expr.Visitor<Object>,
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
+    allocate(AllocationBudget.FUNCTION + AllocationBudget.VARIABLE, stmt.name.line);
     LoxFunction function = new LoxFunction(stmt, environment, false);
     environment.define(stmt.name.lexeme, function);
     return null;
@@ -371,7 +1279,7 @@ class Interpreter implements Expr.Visitor<Object>,
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    out.println(stringify(value));
     return null;
   }
 
@@ -390,6 +1298,7 @@ class Interpreter implements Expr.Visitor<Object>,
       value = evaluate(stmt.initializer);
     }
 
+    allocate(AllocationBudget.VARIABLE, stmt.name.line);
     environment.define(stmt.name.lexeme, value);
     return null;
   }
@@ -398,6 +1307,7 @@ class Interpreter implements Expr.Visitor<Object>,
   public Void visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.body);
+      safepoint(stmt.line);
     }
 
     return null;
@@ -407,9 +1317,8 @@ class Interpreter implements Expr.Visitor<Object>,
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+    if (expr.depth >= 0) {
+      environment.assignAt(expr.depth, expr.name, value);
     } else {
       globals.assign(expr.name, value);
     }
@@ -417,7 +1326,7 @@ class Interpreter implements Expr.Visitor<Object>,
     return value;
   }
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean)object;
     return true;
@@ -430,7 +1339,7 @@ class Interpreter implements Expr.Visitor<Object>,
     return a.equals(b);
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) return "nil";
 
     if (object instanceof Double) {
@@ -5,44 +5,404 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 
-import com.ickoxii.jlox.enums.TokenType;
-
 /**
  * Lox is the base class for our loxinterpreter.
  * */
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
+  /**
+   * Created by the commands that run scripts here, so {@code connect}
+   * and {@code compile} never load the interpreter.
+   * */
+  private static Interpreter interpreter;
 
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
+  /**
+   * Prints compile errors to stderr. It is good practice to decouple
+   * code that generates errors from the code that reports them.
+   * */
+  private static final ErrorReporter reporter = (line, where, message) -> {
+    System.err.println(ErrorReporter.format(line, where, message));
+    hadError = true;
+  };
+
   public static void main(String[] args) throws IOException {
-    if(args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if(args.length == 1) {
-      runFile(args[0]);
+    if(args.length >= 1 && args[0].equals("compile")) {
+      if(args.length < 2 || args.length > 3) usage();
+      compileFile(args[1], args.length == 3 ? args[2] : null);
+      return;
+    }
+
+    if(args.length >= 1 && args[0].equals("image")) {
+      if(args.length != 3) usage();
+      writeImage(args[1], args[2]);
+      return;
+    }
+
+    if(args.length >= 1 && args[0].equals("serve")) {
+      serve(args);
+      return;
+    }
+
+    if(args.length >= 1 && args[0].equals("connect")) {
+      if(args.length != 3) usage();
+      System.exit(LoxDaemon.connect(Paths.get(args[1]), args[2]));
+    }
+
+    if(args.length >= 1 && args[0].equals("run-all")) {
+      System.exit(runAll(args));
+    }
+
+    interpreter = new Interpreter();
+
+    int arg = 0;
+    boolean debug = false;
+    long maxSteps = 0;
+    long maxDepth = 0;
+    long timeout = 0;
+    long maxAlloc = 0;
+    while(arg < args.length && args[arg].startsWith("--")) {
+      switch(args[arg]) {
+        case "--image":
+          if(arg + 1 >= args.length) usage();
+          loadImage(args[++arg]);
+          break;
+        case "--profile":
+          profile("jlox-profile");
+          break;
+        case "--sample":
+          sample(Sampler.DEFAULT_HZ);
+          break;
+        case "--heap-census":
+          if (HeapCensus.active == null) HeapCensus.active = new HeapCensus();
+          break;
+        case "--debug":
+          debug = true;
+          break;
+        default:
+          if(args[arg].startsWith("--profile=")) {
+            profile(args[arg].substring("--profile=".length()));
+            break;
+          }
+          if(args[arg].startsWith("--max-steps=")) {
+            maxSteps = count(args[arg]);
+            break;
+          }
+          if(args[arg].startsWith("--max-depth=")) {
+            maxDepth = Math.min(count(args[arg]), Integer.MAX_VALUE);
+            break;
+          }
+          if(args[arg].startsWith("--max-alloc=")) {
+            maxAlloc = count(args[arg]);
+            break;
+          }
+          if(args[arg].startsWith("--timeout=")) {
+            timeout = count(args[arg]);
+            break;
+          }
+          if(args[arg].startsWith("--sample=")) {
+            try {
+              sample(Integer.parseInt(args[arg].substring("--sample=".length())));
+              break;
+            } catch (NumberFormatException e) {
+              usage();
+            }
+          }
+          usage();
+      }
+      arg++;
+    }
+
+    // On with --heap-census or -Djlox.census=true.
+    if (HeapCensus.active != null) census();
+
+    interpreter.setLimits(maxSteps, (int)maxDepth, timeout * 1_000_000);
+    interpreter.setAllocationLimit(maxAlloc);
+
+    if(debug) {
+      // Both would probe the same tree, and pauses would skew samples.
+      if(args.length - arg != 1 || interpreter.sampler != null) usage();
+      debug(args[arg]);
+    }
+
+    if(args.length - arg > 1) {
+      usage();
+    } else if(args.length - arg == 1) {
+      runFile(args[arg]);
     } else {
       runPrompt();
     }
   }
 
+  /**
+   * The non-negative number after the {@code =} of an option.
+   * */
+  private static long count(String option) {
+    try {
+      long value = Long.parseLong(option.substring(option.indexOf('=') + 1));
+      if(value >= 0) return value;
+    } catch (NumberFormatException e) {
+      // Fall through to usage.
+    }
+    usage();
+    return 0;
+  }
+
+  private static void usage() {
+    System.out.println("Usage: jlox [--image <image>] [--profile[=<prefix>]]"
+        + " [--sample[=<hz>]] [--heap-census] [--debug]");
+    System.out.println("                [--max-steps=<n>] [--max-depth=<n>]"
+        + " [--max-alloc=<bytes>] [--timeout=<ms>] [script]");
+    System.out.println("       jlox compile <script> [output]");
+    System.out.println("       jlox image <prelude> <image>");
+    System.out.println("       jlox serve [--max-steps <n>] [--timeout <ms>]"
+        + " <socket>");
+    System.out.println("       jlox connect <socket> <script | ->");
+    System.out.println("       jlox run-all [--threads <n>] [--out <dir>]"
+        + " [--timeout <ms>] <dir>");
+    System.exit(64);
+  }
+
   /**
    * Read the file and execute.
    *
+   * A {@code .loxc} file is run directly. For a regular script, a
+   * compiled form sitting next to it is used instead of the source
+   * as long as it was built from exactly these bytes.
+   *
    * @throws IOException If error occurs when reading file.
    * */
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    Path file = Paths.get(path);
+    if (path.endsWith(ScriptCache.EXTENSION)) {
+      execute(ScriptCache.read(file));
+    } else {
+      byte[] bytes = Files.readAllBytes(file);
+      List<Stmt> compiled = ScriptCache.readIfFresh(
+          ScriptCache.pathFor(file), ScriptCache.hash(bytes));
+
+      if (compiled != null && interpreter.debugger == null) {
+        execute(compiled);
+      } else {
+        run(new String(bytes, Charset.defaultCharset()));
+      }
+    }
 
     if(hadError) System.exit(65);
     if(hadRuntimeError) System.exit(70);
   }
 
+  /**
+   * Time every Lox call from here on, and write the report and
+   * collapsed stacks to {@code <prefix>.txt} and
+   * {@code <prefix>.collapsed} when the process exits, however it
+   * exits.
+   * */
+  private static void profile(String prefix) {
+    Profiler profiler = new Profiler(interpreter.names);
+    interpreter.profiler = profiler;
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        profiler.write(prefix);
+        System.err.println("Profile written to " + prefix + ".txt and "
+            + prefix + ".collapsed.");
+      } catch (IOException e) {
+        System.err.println("Could not write profile: " + e.getMessage());
+      }
+    }));
+  }
+
+  /**
+   * Sample the Lox stack {@code hz} times a second, and write the
+   * report to {@code jlox-samples.txt} when the process exits.
+   * */
+  private static void sample(int hz) {
+    if (hz < 1 || hz > 1_000_000) usage();
+
+    Sampler sampler = new Sampler(interpreter.names, hz);
+    interpreter.sampler = sampler;
+    sampler.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      Path report = Paths.get("jlox-samples.txt");
+      try {
+        sampler.write(report);
+        System.err.println("Samples written to " + report + ".");
+      } catch (IOException | InterruptedException e) {
+        System.err.println("Could not write samples: " + e.getMessage());
+      }
+    }));
+  }
+
+  /**
+   * Write the active census to {@code jlox-heap.txt} when the process
+   * exits.
+   * */
+  private static void census() {
+    HeapCensus census = HeapCensus.active;
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      Path report = Paths.get("jlox-heap.txt");
+      try {
+        census.write(report, interpreter);
+        System.err.println("Heap census written to " + report + ".");
+      } catch (IOException | RuntimeException e) {
+        // A RuntimeException here means the script was still changing
+        // its objects when the process was interrupted.
+        System.err.println("Could not write heap census: " + e);
+      }
+    }));
+  }
+
+  /**
+   * Stop before the script's first statement and take debugger
+   * commands from stdin. The source is skipped when it is a compiled
+   * script, so stops show line numbers only.
+   *
+   * @throws IOException If the script can't be read.
+   * */
+  private static void debug(String path) throws IOException {
+    List<String> source = path.endsWith(ScriptCache.EXTENSION)
+        ? List.of() : Files.readAllLines(Paths.get(path));
+    BufferedReader commands =
+        new BufferedReader(new InputStreamReader(System.in));
+    interpreter.debugger =
+        new Debugger(interpreter, commands, System.err, source);
+  }
+
+  /**
+   * Run scripts sent over a Unix domain socket until killed.
+   *
+   * @throws IOException If the socket can't be bound.
+   * */
+  private static void serve(String[] args) throws IOException {
+    long maxSteps = 0;
+    Duration timeout = LoxDaemon.DEFAULT_TIMEOUT;
+
+    int arg = 1;
+    while(arg < args.length && args[arg].startsWith("--")) {
+      if(arg + 1 >= args.length) usage();
+      switch(args[arg]) {
+        case "--max-steps":
+          maxSteps = count(args[++arg]);
+          break;
+        case "--timeout":
+          long millis = count(args[++arg]);
+          timeout = millis == 0 ? null : Duration.ofMillis(millis);
+          break;
+        default:
+          usage();
+      }
+      arg++;
+    }
+
+    if(args.length - arg != 1) usage();
+    new LoxDaemon(Paths.get(args[arg]), maxSteps, timeout).serve();
+  }
+
+  /**
+   * Run every script under a directory concurrently in this JVM.
+   *
+   * @return The exit status for the whole batch.
+   * @throws IOException If the directory can't be read.
+   * */
+  private static int runAll(String[] args) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    Path outputDir = null;
+    Duration timeout = BatchRunner.DEFAULT_TIMEOUT;
+
+    int arg = 1;
+    while(arg < args.length && args[arg].startsWith("--")) {
+      if(arg + 1 >= args.length) usage();
+      switch(args[arg]) {
+        case "--threads":
+          try {
+            threads = Integer.parseInt(args[++arg]);
+          } catch (NumberFormatException e) {
+            usage();
+          }
+          if (threads < 1) usage();
+          break;
+        case "--out":
+          outputDir = Paths.get(args[++arg]);
+          break;
+        case "--timeout":
+          long millis = count(args[++arg]);
+          timeout = millis == 0 ? null : Duration.ofMillis(millis);
+          break;
+        default:
+          usage();
+      }
+      arg++;
+    }
+
+    if(args.length - arg != 1) usage();
+    return new BatchRunner(threads, outputDir, timeout)
+        .runAll(Paths.get(args[arg]));
+  }
+
+  /**
+   * Scan, parse and resolve a script without running it, and save the
+   * result as a {@code .loxc} file.
+   *
+   * @throws IOException If error occurs when reading or writing files.
+   * */
+  private static void compileFile(String path, String output)
+      throws IOException {
+    Path file = Paths.get(path);
+    byte[] bytes = Files.readAllBytes(file);
+    List<Stmt> statements = compile(new String(bytes, Charset.defaultCharset()));
+    if (hadError) System.exit(65);
+
+    Path target = output != null ? Paths.get(output)
+                                 : ScriptCache.pathFor(file);
+    ScriptCache.write(target, ScriptCache.hash(bytes),
+        CompactAst.encode(statements));
+  }
+
+  /**
+   * Run a prelude script and save the resulting global scope as a
+   * heap image that later runs can start from with {@code --image}.
+   *
+   * @throws IOException If error occurs when reading or writing files.
+   * */
+  private static void writeImage(String prelude, String output)
+      throws IOException {
+    byte[] bytes = Files.readAllBytes(Paths.get(prelude));
+    List<Stmt> statements = compile(new String(bytes, Charset.defaultCharset()));
+    if (hadError) System.exit(65);
+
+    interpreter = new Interpreter();
+    execute(statements);
+    if (hadRuntimeError) System.exit(70);
+
+    try {
+      HeapImage.write(Paths.get(output), statements, interpreter);
+    } catch (IOException e) {
+      // Most often the prelude left something in its globals that an
+      // image can't hold.
+      System.err.println("Could not write image: " + e.getMessage());
+      System.exit(70);
+    }
+  }
+
+  /**
+   * Start from a heap image instead of an empty global scope.
+   * */
+  private static void loadImage(String image) {
+    try {
+      HeapImage.load(Paths.get(image), interpreter);
+    } catch (IOException e) {
+      System.err.println("Could not load image '" + image + "': "
+          + e.getMessage());
+      System.exit(65);
+    }
+  }
+
   /**
    * Called when {@code jlox} is called without any command
    * line arguments. This launches {@code jlox} in REPL mode
@@ -65,63 +425,39 @@ public class Lox {
   }
 
   /**
-   *
+   * Scan, parse and resolve source code, then run it.
    * */
   private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
+    List<Stmt> statements = compile(source);
 
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
-
-    // Stop if there was any syntax error.
+    // Stop if there was a syntax or resolution error
     if (hadError) return;
 
-    Resolver resolver = new Resolver(interpreter);
-    resolver.resolve(statements);
-
-    // Stop if there was a resolution error
-    if (hadError) return;
-
-    interpreter.interpret(statements);
+    execute(statements);
   }
 
   /**
-   * Wrapper for the report error function. It is good practice to decouple
-   * code that generates errors from the code that reports them.
-   *
-   * @param line Line number containing the error.
-   * @param message Error message.
+   * Run a resolved program, reporting a runtime error if it stops
+   * with one.
    * */
-  static void error(int line, String message) {
-    report(line, "", message);
-  }
-
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-        "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
+  private static void execute(List<Stmt> statements) {
+    try {
+      interpreter.interpret(statements);
+    } catch (RuntimeError error) {
+      runtimeError(error);
+    }
   }
 
   /**
-   * Prints a formatted error message.
-   *
-   * @param line Line number containing error.
-   * @param where Location where error occurs.
-   * @param message Error message.
-   * */
-  private static void report(int line, String where, String message) {
-    System.err.println(
-      "[line " + line + "] Error" + where + ": " + message
-    );
-    hadError = true;
+   * Scan, parse and resolve source code. The caller should check
+   * {@code hadError} before using the result.
+   * */
+  private static List<Stmt> compile(String source) {
+    return LoxEngine.compile(source, reporter);
   }
 
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
+  static void runtimeError(RuntimeError error) {
+    System.err.println(LoxException.format(error));
+    hadRuntimeError = true;
   }
 }
@@ -0,0 +1,128 @@
+package com.ickoxii.jlox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code bench(fn, iterations)} native, for microbenchmarks
+ * written in Lox.
+ *
+ * {@code fn} is called {@code iterations} times per round. The first
+ * few rounds are warmup and aren't recorded, to give the JIT a chance
+ * to compile the interpreter paths {@code fn} uses. Every measured
+ * round yields one sample, the average time per call over that round,
+ * and the result is a {@code BenchStats} instance summarizing the
+ * samples in nanoseconds:
+ *
+ *   mean, median, min, max, stddev   time per call
+ *   iterations, rounds               calls per round, measured rounds
+ * */
+final class LoxBench {
+  static final int WARMUP_ROUNDS = 3;
+  static final int MEASURED_ROUNDS = 10;
+
+  private static final LoxClass STATS =
+      new LoxClass("BenchStats", null, new HashMap<>());
+
+  /**
+   * Where results go so the JIT can't prove they are unused. Written
+   * once per round rather than per call so the write itself stays out
+   * of the measurement.
+   * */
+  private static volatile Object sink;
+
+  /**
+   * Where {@link #clockNanos} counts from. A double holds whole
+   * nanoseconds exactly only up to 2^53, about 104 days, and
+   * {@code System.nanoTime()} may already be far past that.
+   * */
+  private static final long ORIGIN = System.nanoTime();
+
+  private LoxBench() {}
+
+  /**
+   * The {@code clockNanos()} native: nanoseconds since jlox first read
+   * the clock. Only differences between two readings mean anything.
+   * */
+  static double clockNanos() {
+    return System.nanoTime() - ORIGIN;
+  }
+
+  /**
+   * The iteration count a script asked for, which must be a whole
+   * number from 1 up to {@code Integer.MAX_VALUE}.
+   * */
+  static int iterations(Object value) {
+    if (!(value instanceof Double)) {
+      throw new RuntimeError(null, "Iterations must be a number.");
+    }
+
+    double iterations = (double)value;
+    if (!(iterations >= 1) || iterations > Integer.MAX_VALUE
+        || iterations != Math.floor(iterations)) {
+      throw new RuntimeError(null,
+          "Iterations must be a positive whole number.");
+    }
+    return (int)iterations;
+  }
+
+  /**
+   * @param iterations A count checked by {@link #iterations}.
+   * */
+  static LoxInstance run(Interpreter interpreter, LoxCallable fn,
+                         int iterations) {
+    List<Object> noArguments = List.of();
+
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      Object last = null;
+      for (int i = 0; i < iterations; i++) {
+        last = fn.call(interpreter, noArguments);
+      }
+      sink = last;
+    }
+
+    double[] samples = new double[MEASURED_ROUNDS];
+    for (int round = 0; round < MEASURED_ROUNDS; round++) {
+      Object last = null;
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        last = fn.call(interpreter, noArguments);
+      }
+      samples[round] = (double)(System.nanoTime() - start) / iterations;
+      sink = last;
+    }
+
+    return stats(samples, iterations);
+  }
+
+  private static LoxInstance stats(double[] samples, int iterations) {
+    Arrays.sort(samples);
+
+    double sum = 0;
+    for (double sample : samples) sum += sample;
+    double mean = sum / samples.length;
+
+    double squares = 0;
+    for (double sample : samples) {
+      squares += (sample - mean) * (sample - mean);
+    }
+
+    int middle = samples.length / 2;
+    double median = samples.length % 2 == 1
+        ? samples[middle]
+        : (samples[middle - 1] + samples[middle]) / 2;
+
+    LoxInstance stats = new LoxInstance(STATS);
+    Map<String, Object> fields = stats.fields();
+    fields.put("mean", mean);
+    fields.put("median", median);
+    fields.put("min", samples[0]);
+    fields.put("max", samples[samples.length - 1]);
+    fields.put("stddev", Math.sqrt(squares / samples.length));
+    fields.put("iterations", (double)iterations);
+    fields.put("rounds", (double)samples.length);
+    return stats;
+  }
+}
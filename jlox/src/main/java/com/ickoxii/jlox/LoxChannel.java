@@ -0,0 +1,257 @@
+package com.ickoxii.jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded channel for passing values between tasks, made by the
+ * {@code channel(capacity)} native.
+ *
+ * {@code send} waits while the channel is full and {@code receive}
+ * while it is empty, which is what keeps a fast producer from running
+ * away from a slow consumer. Values come out in the order they went
+ * in, and everything a task did before sending a value is visible to
+ * the task that receives it.
+ *
+ * After {@code close}, sending is an error, and receiving drains what
+ * is left and then returns nil. That is why nil itself can't be sent.
+ *
+ * The buffer is a ring guarded by a ReentrantLock that is only held
+ * to move one value. It starts small and doubles as values pile up,
+ * never past the capacity, so a channel with room for far more values
+ * than it ever holds costs no more than a small one. Waiting uses its conditions, or LockSupport for
+ * {@code select}, so a blocked virtual thread gives up its carrier.
+ * Waiters wake up every {@link #POLL_NANOS} to check whether their
+ * interpreter has been cancelled.
+ * */
+final class LoxChannel {
+  static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  static final int INITIAL_BUFFER = 16;
+
+  private static final LoxClass RECEIVED =
+      new LoxClass("Received", null, new HashMap<>());
+
+  private final int capacity;
+  private Object[] buffer;
+  private int head = 0;
+  private int count = 0;
+  private boolean closed = false;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  // Threads in select() waiting on this channel among others.
+  private final List<Thread> selectors = new ArrayList<>();
+
+  LoxChannel(int capacity) {
+    this.capacity = capacity;
+    this.buffer = new Object[Math.min(capacity, INITIAL_BUFFER)];
+  }
+
+  /**
+   * A channel whose buffer is charged to the interpreter's allocation
+   * budget before it is allocated, and again each time it grows.
+   * */
+  static LoxChannel create(Interpreter interpreter, int capacity) {
+    interpreter.allocate(AllocationBudget.CHANNEL
+        + AllocationBudget.references(Math.min(capacity, INITIAL_BUFFER)), 0);
+    return new LoxChannel(capacity);
+  }
+
+  /**
+   * The channel a native was given, or a runtime error saying it
+   * wanted one.
+   * */
+  static LoxChannel check(Object value) {
+    if (value instanceof LoxChannel) return (LoxChannel)value;
+    throw new RuntimeError(null, "Expected a channel.");
+  }
+
+  void send(Interpreter interpreter, Object value) {
+    checkSendable(value);
+    lock.lock();
+    try {
+      while (!closed && count == capacity) {
+        await(interpreter, notFull);
+      }
+      enqueue(interpreter, value);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sends without waiting. Returns false if the channel is full.
+   * */
+  boolean trySend(Interpreter interpreter, Object value) {
+    checkSendable(value);
+    lock.lock();
+    try {
+      if (!closed && count == capacity) return false;
+      enqueue(interpreter, value);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The next value, or nil once the channel is closed and empty.
+   * */
+  Object receive(Interpreter interpreter) {
+    lock.lock();
+    try {
+      while (count == 0 && !closed) {
+        await(interpreter, notEmpty);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+      wakeSelectors();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static void checkSendable(Object value) {
+    if (value == null) {
+      throw new RuntimeError(null, "Can't send nil on a channel.");
+    }
+  }
+
+  /**
+   * Called with the lock held and the channel below capacity.
+   * */
+  private void enqueue(Interpreter interpreter, Object value) {
+    if (closed) throw new RuntimeError(null, "Send on a closed channel.");
+    if (count == buffer.length) grow(interpreter);
+
+    buffer[(head + count) % buffer.length] = value;
+    count++;
+    notEmpty.signal();
+    wakeSelectors();
+  }
+
+  /**
+   * Doubles the ring, up to the capacity, unwrapping it so the oldest
+   * value is first. Called with the lock held and the ring full.
+   * */
+  private void grow(Interpreter interpreter) {
+    int length = (int)Math.min(capacity, 2L * buffer.length);
+    interpreter.allocate(AllocationBudget.references(length), 0);
+
+    Object[] grown = new Object[length];
+    int first = buffer.length - head;
+    System.arraycopy(buffer, head, grown, 0, first);
+    System.arraycopy(buffer, 0, grown, first, head);
+    buffer = grown;
+    head = 0;
+  }
+
+  /**
+   * Called with the lock held. Null if the buffer is empty.
+   * */
+  private Object dequeue() {
+    if (count == 0) return null;
+
+    Object value = buffer[head];
+    buffer[head] = null;
+    head = (head + 1) % buffer.length;
+    count--;
+    notFull.signal();
+    return value;
+  }
+
+  private void wakeSelectors() {
+    for (Thread selector : selectors) LockSupport.unpark(selector);
+  }
+
+  private static void await(Interpreter interpreter, Condition condition) {
+    try {
+      condition.awaitNanos(POLL_NANOS);
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted while waiting on a channel.");
+    }
+    interpreter.waitpoint();
+  }
+
+  /**
+   * Waits until any of the channels has a value and takes it. Returns
+   * a {@code Received} instance with the {@code channel} and the
+   * {@code value}, or nil once every channel is closed and empty. When
+   * several channels are ready, which one wins is random, so none of
+   * them can starve the others.
+   * */
+  static Object select(Interpreter interpreter, List<LoxChannel> channels) {
+    Thread self = Thread.currentThread();
+    for (LoxChannel channel : channels) channel.register(self, true);
+
+    try {
+      for (;;) {
+        boolean open = false;
+        int start = ThreadLocalRandom.current().nextInt(channels.size());
+        for (int i = 0; i < channels.size(); i++) {
+          LoxChannel channel = channels.get((start + i) % channels.size());
+          channel.lock.lock();
+          try {
+            Object value = channel.dequeue();
+            if (value != null) return received(channel, value);
+            if (!channel.closed) open = true;
+          } finally {
+            channel.lock.unlock();
+          }
+        }
+        if (!open) return null;
+
+        // A value sent after the scan above unparks us, so this can't
+        // miss it. Spurious wakeups just scan again.
+        LockSupport.parkNanos(channels, POLL_NANOS);
+        interpreter.waitpoint();
+      }
+    } finally {
+      for (LoxChannel channel : channels) channel.register(self, false);
+    }
+  }
+
+  private void register(Thread selector, boolean add) {
+    lock.lock();
+    try {
+      if (add) {
+        selectors.add(selector);
+      } else {
+        selectors.remove(selector);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static LoxInstance received(LoxChannel channel, Object value) {
+    LoxInstance received = new LoxInstance(RECEIVED);
+    received.fields().put("channel", channel);
+    received.fields().put("value", value);
+    return received;
+  }
+
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+}
@@ -8,6 +8,9 @@ class LoxClass implements LoxCallable {
   final LoxClass superclass;
   private final Map<String, LoxFunction> methods;
 
+  // Set by freeze(klass). See LoxInstance.freeze.
+  private volatile boolean freezesInstances = false;
+
   /**
    * Instance stores state, class stores behavior
    * */
@@ -17,6 +20,28 @@ class LoxClass implements LoxCallable {
     this.methods = methods;
   }
 
+  /**
+   * Methods declared directly on this class, not inherited ones.
+   * */
+  Map<String, LoxFunction> methods() {
+    return methods;
+  }
+
+  void freezeInstances() {
+    freezesInstances = true;
+  }
+
+  /**
+   * Whether instances are frozen once initialized, because this class
+   * or one it inherits from was frozen.
+   * */
+  boolean freezesInstances() {
+    for (LoxClass klass = this; klass != null; klass = klass.superclass) {
+      if (klass.freezesInstances) return true;
+    }
+    return false;
+  }
+
   LoxFunction findMethod(String name) {
     if (methods.containsKey(name)) {
       return methods.get(name);
@@ -37,11 +62,26 @@ class LoxClass implements LoxCallable {
   @Override
   public Object call(Interpreter interpreter,
                      List<Object> arguments) {
+    Profiler profiler = interpreter.profiler;
+    if (profiler == null) return instantiate(interpreter, arguments);
+
+    profiler.enter(this);
+    try {
+      return instantiate(interpreter, arguments);
+    } finally {
+      profiler.exit();
+    }
+  }
+
+  private Object instantiate(Interpreter interpreter, List<Object> arguments) {
+    interpreter.allocate(AllocationBudget.INSTANCE, 0);
     LoxInstance instance = new LoxInstance(this);
     LoxFunction initializer = findMethod("init");
     if (initializer != null) {
+      interpreter.allocate(AllocationBudget.BOUND_METHOD, 0);
       initializer.bind(instance).call(interpreter, arguments);
     }
+    if (freezesInstances()) LoxInstance.freeze(instance);
 
     return instance;
   }
@@ -0,0 +1,234 @@
+package com.ickoxii.jlox;
+
+import java.io.Writer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.ickoxii.jlox.enums.TokenType;
+
+/**
+ * The state of one running Lox program: a global scope, and where
+ * {@code print} sends its output.
+ *
+ * Contexts share nothing, so different contexts can run at the same
+ * time on different threads. The one exception is the heap census,
+ * which when it is on counts objects for the whole process (see
+ * {@link HeapCensus}). A single context must only be used by
+ * one thread at a time, apart from {@link #cancel()}.
+ *
+ * Values cross between Java and Lox as {@code Double}, {@code String},
+ * {@code Boolean} and {@code null}. Any other Java number passed in is
+ * converted to a {@code Double}. Lox functions, classes and instances
+ * come out as opaque objects that can be handed back to
+ * {@link #call(Object, Object...)} and
+ * {@link #callMethod(Object, String, Object...)}.
+ * */
+public final class LoxContext {
+  final Interpreter interpreter;
+
+  LoxContext(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  /**
+   * Reads a global variable, or null if it is not defined.
+   * */
+  public Object get(String name) {
+    return interpreter.globals.values().get(name);
+  }
+
+  /**
+   * Defines (or redefines) a global variable.
+   * */
+  public void set(String name, Object value) {
+    interpreter.globals.define(name, toLox(value));
+  }
+
+  /**
+   * Removes a global variable, returning its old value.
+   * */
+  public Object remove(String name) {
+    return interpreter.globals.values().remove(name);
+  }
+
+  /**
+   * A read-only live view of the global scope.
+   * */
+  public Map<String, Object> globals() {
+    return Collections.unmodifiableMap(interpreter.globals.values());
+  }
+
+  /**
+   * Where to read globals that scripts use but neither they nor
+   * {@link #set} defined, instead of failing with "Undefined
+   * variable". The map is read each time such a name is used, and
+   * assigning to the name is still an error. Null turns this off.
+   * */
+  public void setOuterScope(Map<String, ?> outer) {
+    interpreter.globals.outer = outer == null ? null : name ->
+        outer.containsKey(name) ? toLox(outer.get(name)) : SharedMap.MISSING;
+  }
+
+  /**
+   * Redirects {@code print} statements for scripts run from now on.
+   * */
+  public void setOutput(Writer out) {
+    interpreter.setOut(out);
+  }
+
+  /**
+   * Limits for every script and call run in this context from now on.
+   * A script that exceeds one fails with a runtime error. Zero (or a
+   * null time limit) means no limit.
+   *
+   * Limits are checked at safepoints, which are every loop iteration
+   * and every function call, so straight-line code between two of
+   * them always runs to the end.
+   *
+   * @param steps Loop iterations plus function calls.
+   * @param callDepth Lox calls in progress at once.
+   * @param time Wall-clock time. Checked every thousand or so steps,
+   *             so it may be overrun slightly.
+   * */
+  public void setLimits(long steps, int callDepth, Duration time) {
+    if (steps < 0 || callDepth < 0 || (time != null && time.isNegative())) {
+      throw new IllegalArgumentException("Limits can't be negative.");
+    }
+    interpreter.setLimits(steps, callDepth,
+        time != null ? time.toNanos() : 0);
+  }
+
+  /**
+   * Limits how many bytes each script or call run in this context from
+   * now on may allocate in total, or zero for no limit. A script that
+   * goes over fails with a runtime error.
+   *
+   * This is a budget for allocation, not a cap on memory in use: it
+   * counts estimated allocations of environments, variables,
+   * instances, fields, functions, lists, channels and concatenated
+   * strings, checked in batches of 64 KB, and never gives any back.
+   * Objects that have already become garbage still count, so size the
+   * limit for everything a run creates.
+   * */
+  public void setAllocationLimit(long bytes) {
+    if (bytes < 0) throw new IllegalArgumentException("Limit can't be negative.");
+    interpreter.setAllocationLimit(bytes);
+  }
+
+  /**
+   * Stops the script running in this context at its next safepoint,
+   * with the runtime error "Execution cancelled.". If nothing is
+   * running, the next script or call is stopped instead. Unlike the
+   * rest of this class, this may be called from any thread.
+   * */
+  public void cancel() {
+    interpreter.cancel();
+  }
+
+  /**
+   * Whether a global is something Lox can call.
+   * */
+  public boolean isCallable(String name) {
+    return get(name) instanceof LoxCallable;
+  }
+
+  /**
+   * Whether an object is a Lox instance with a method (or callable
+   * field) of the given name.
+   * */
+  public boolean hasMethod(Object instance, String name) {
+    if (!(instance instanceof LoxInstance)) return false;
+
+    LoxInstance object = (LoxInstance)instance;
+    return object.fields().get(name) instanceof LoxCallable ||
+           object.klass().findMethod(name) != null;
+  }
+
+  /**
+   * Calls the global function (or class) with the given name.
+   *
+   * @throws LoxException If it is not callable or fails while running.
+   * */
+  public Object call(String name, Object... arguments) throws LoxException {
+    Object callee = get(name);
+    if (!(callee instanceof LoxCallable)) {
+      throw new LoxException(
+          List.of("Undefined function '" + name + "'."), true);
+    }
+    return call(callee, arguments);
+  }
+
+  /**
+   * Calls a Lox function, bound method or class obtained from this
+   * context. Like running a script, the call doesn't return until any
+   * tasks it spawned have finished.
+   *
+   * @throws LoxException If it is not callable or fails while running.
+   * */
+  public Object call(Object callee, Object... arguments) throws LoxException {
+    if (!(callee instanceof LoxCallable)) {
+      throw new LoxException(
+          List.of("Can only call functions and classes."), true);
+    }
+
+    LoxCallable function = (LoxCallable)callee;
+    if (arguments.length != function.arity()) {
+      throw new LoxException(List.of("Expected " + function.arity() +
+          " arguments but got " + arguments.length + " instead."), true);
+    }
+
+    List<Object> values = new ArrayList<>(arguments.length);
+    for (Object argument : arguments) {
+      values.add(toLox(argument));
+    }
+
+    try {
+      return interpreter.callFromHost(function, values);
+    } catch (RuntimeError error) {
+      throw new LoxException(List.of(LoxException.format(error)), true);
+    } catch (StackOverflowError error) {
+      throw new LoxException(List.of("Stack overflow."), true);
+    }
+  }
+
+  /**
+   * Calls a method on a Lox instance.
+   *
+   * @throws LoxException If there is no such method or it fails.
+   * */
+  public Object callMethod(Object instance, String name, Object... arguments)
+      throws LoxException {
+    if (!(instance instanceof LoxInstance)) {
+      throw new LoxException(
+          List.of("Only instances have methods."), true);
+    }
+
+    Token token = new Token(TokenType.IDENTIFIER, name, null, 0);
+    try {
+      return call(((LoxInstance)instance).get(token), arguments);
+    } catch (RuntimeError error) {
+      throw new LoxException(List.of(LoxException.format(error)), true);
+    }
+  }
+
+  void run(List<Stmt> statements) throws LoxException {
+    try {
+      interpreter.interpret(statements);
+    } catch (RuntimeError error) {
+      throw new LoxException(List.of(LoxException.format(error)), true);
+    } catch (StackOverflowError error) {
+      throw new LoxException(List.of("Stack overflow."), true);
+    }
+  }
+
+  private static Object toLox(Object value) {
+    if (value instanceof Number && !(value instanceof Double)) {
+      return ((Number)value).doubleValue();
+    }
+    if (value instanceof Character) return value.toString();
+    return value;
+  }
+}
@@ -0,0 +1,347 @@
+package com.ickoxii.jlox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-running jlox process that runs scripts sent to it over a
+ * Unix domain socket.
+ *
+ * Every {@code jlox script.lox} pays for JVM startup and then runs
+ * the interpreter cold. The daemon pays that once, and every script
+ * after the first runs on interpreter paths the JIT has already
+ * compiled.
+ *
+ * The protocol is a sequence of frames, each a one-byte tag, an int
+ * length and that many bytes:
+ *
+ *   client -> daemon   'P' absolute path of a script to run
+ *                      'S' script source
+ *   daemon -> client   'O' bytes written to stdout
+ *                      'E' bytes written to stderr
+ *                      'X' exit code (length 4, a single int), last
+ *
+ * Each connection carries exactly one script. Connections are
+ * handled on a pool of {@link #WORKERS} threads, each script in a
+ * fresh {@link LoxContext}, so a slow script doesn't hold up the
+ * others. Up to {@link #BACKLOG} more wait for a thread; beyond that a
+ * client is told the daemon is busy (exit code 75) straight away.
+ *
+ * A script that loops forever would hold a worker until the daemon is
+ * killed, so each one is stopped after {@link #DEFAULT_TIMEOUT} unless
+ * {@code serve} was given other limits.
+ *
+ * A frame may carry at most {@link #MAX_PAYLOAD} bytes. A request that
+ * breaks the protocol gets exit code 64, and one that fails inside the
+ * daemon gets 70, so a client always sees an exit frame.
+ * */
+final class LoxDaemon {
+  static final byte PATH = 'P';
+  static final byte SOURCE = 'S';
+  static final byte STDOUT = 'O';
+  static final byte STDERR = 'E';
+  static final byte EXIT = 'X';
+
+  static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+  static final int WORKERS =
+      Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+  static final int BACKLOG = 64;
+  static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(1);
+
+  private final Path socket;
+  private final long maxSteps;
+  private final Duration timeout;
+  private final LoxEngine engine = new LoxEngine();
+  private final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+      WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(BACKLOG));
+
+  /**
+   * @param maxSteps How many steps each script may take, or zero for no
+   *                 limit.
+   * @param timeout  How long each script may run, or null for no limit.
+   * */
+  LoxDaemon(Path socket, long maxSteps, Duration timeout) {
+    this.socket = socket;
+    this.maxSteps = maxSteps;
+    this.timeout = timeout;
+    workers.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Accept connections until the process is killed.
+   *
+   * @throws IOException If the socket can't be bound, or another daemon
+   *                     is already listening on it.
+   * */
+  void serve() throws IOException {
+    if (Files.exists(socket)) {
+      SocketChannel other;
+      try {
+        other = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+      } catch (ConnectException e) {
+        // A socket file left behind by a daemon that died is just a file.
+        other = null;
+        Files.delete(socket);
+      }
+
+      if (other != null) {
+        other.close();
+        throw new IOException(
+            "A jlox daemon is already listening on " + socket + ".");
+      }
+    }
+
+    try (ServerSocketChannel server =
+             ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.deleteIfExists(socket);
+        } catch (IOException e) {
+          // Nothing left to report to.
+        }
+      }));
+
+      System.err.println("jlox daemon listening on " + socket);
+      for (;;) {
+        SocketChannel client = server.accept();
+        try {
+          workers.execute(() -> {
+            try (client) {
+              handle(client);
+            } catch (IOException e) {
+              // The client went away mid-run. Keep serving the others.
+              System.err.println("jlox daemon: " + e.getMessage());
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          try (client) {
+            refuse(client);
+          } catch (IOException ignored) {
+            // Nobody left to tell.
+          }
+        }
+      }
+    }
+  }
+
+  private void handle(SocketChannel client) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Channels.newInputStream(client)));
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Channels.newOutputStream(client)));
+
+    PrintStream stdout = new PrintStream(new FrameStream(out, STDOUT), true);
+    PrintStream stderr = new PrintStream(new FrameStream(out, STDERR), true);
+
+    byte tag;
+    byte[] payload;
+    try {
+      tag = in.readByte();
+      payload = readPayload(in);
+    } catch (EOFException e) {
+      // Hung up without asking for anything, as a second serve does
+      // when it checks whether this daemon is alive.
+      return;
+    } catch (IOException e) {
+      stderr.println("Bad request: " + e.getMessage());
+      exit(out, 64);
+      return;
+    }
+
+    int status;
+    try {
+      status = run(tag, payload, stdout, stderr);
+    } catch (RuntimeException | StackOverflowError e) {
+      stderr.println("Internal error: " + e);
+      status = 70;
+    }
+    stdout.flush();
+    stderr.flush();
+    exit(out, status);
+  }
+
+  private static void refuse(SocketChannel client) throws IOException {
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Channels.newOutputStream(client)));
+    byte[] message = "jlox daemon is busy, try again later.\n"
+        .getBytes(StandardCharsets.UTF_8);
+    writeFrame(out, STDERR, message, 0, message.length);
+    exit(out, 75);
+  }
+
+  private static void exit(DataOutputStream out, int status)
+      throws IOException {
+    synchronized (out) {
+      out.writeByte(EXIT);
+      out.writeInt(4);
+      out.writeInt(status);
+      out.flush();
+    }
+  }
+
+  private int run(byte tag, byte[] payload, PrintStream stdout,
+                  PrintStream stderr) {
+    if (tag == SOURCE) {
+      return run(new String(payload, StandardCharsets.UTF_8), stdout, stderr);
+    }
+
+    if (tag != PATH) {
+      stderr.println("Unknown request.");
+      return 64;
+    }
+
+    String path = new String(payload, StandardCharsets.UTF_8);
+    try {
+      byte[] bytes = Files.readAllBytes(Paths.get(path));
+      return run(new String(bytes, Charset.defaultCharset()), stdout, stderr);
+    } catch (NoSuchFileException e) {
+      stderr.println("Can't open script '" + path + "'.");
+      return 66;
+    } catch (IOException e) {
+      stderr.println("Can't read script '" + path + "': " + e.getMessage());
+      return 66;
+    }
+  }
+
+  private int run(String source, PrintStream stdout, PrintStream stderr) {
+    try {
+      CompiledScript compiled = engine.compile(source);
+      LoxContext context = engine.createContext(stdout);
+      context.setLimits(maxSteps, 0, timeout);
+      compiled.execute(context);
+      return 0;
+    } catch (LoxException e) {
+      stderr.println(e.getMessage());
+      return e.exitCode();
+    }
+  }
+
+  /**
+   * @throws IOException If the frame is cut short or its length is
+   *                     negative or over {@link #MAX_PAYLOAD}.
+   * */
+  static byte[] readPayload(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_PAYLOAD) {
+      throw new IOException("Frame length " + length + " out of range.");
+    }
+
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    return payload;
+  }
+
+  static void writeFrame(DataOutputStream out, byte tag, byte[] bytes,
+                         int offset, int length) throws IOException {
+    synchronized (out) {
+      out.writeByte(tag);
+      out.writeInt(length);
+      out.write(bytes, offset, length);
+      out.flush();
+    }
+  }
+
+  /**
+   * Turns everything written to it into frames with one tag, so
+   * stdout and stderr can share the connection.
+   * */
+  private static class FrameStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte tag;
+
+    FrameStream(DataOutputStream out, byte tag) {
+      this.out = out;
+      this.tag = tag;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+        throws IOException {
+      while (length > 0) {
+        int chunk = Math.min(length, MAX_PAYLOAD);
+        writeFrame(out, tag, bytes, offset, chunk);
+        offset += chunk;
+        length -= chunk;
+      }
+    }
+  }
+
+  /**
+   * The thin client side: send one script and replay what comes back.
+   *
+   * @param script A path, or "-" to send source read from stdin.
+   * @return The script's exit code.
+   * @throws IOException If the daemon can't be reached.
+   * */
+  static int connect(Path socket, String script) throws IOException {
+    byte tag;
+    byte[] payload;
+    if (script.equals("-")) {
+      tag = SOURCE;
+      payload = System.in.readAllBytes();
+    } else {
+      tag = PATH;
+      payload = Paths.get(script).toAbsolutePath().toString()
+          .getBytes(StandardCharsets.UTF_8);
+    }
+
+    try (SocketChannel channel = SocketChannel.open(
+             UnixDomainSocketAddress.of(socket))) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel)));
+      writeFrame(out, tag, payload, 0, payload.length);
+
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel)));
+      for (;;) {
+        byte frame = in.readByte();
+        byte[] bytes = readPayload(in);
+        switch (frame) {
+          case STDOUT:
+            System.out.write(bytes);
+            System.out.flush();
+            break;
+          case STDERR:
+            System.err.write(bytes);
+            System.err.flush();
+            break;
+          case EXIT:
+            return ByteBuffer.wrap(bytes).getInt();
+          default:
+            throw new IOException("Unexpected frame from daemon.");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.ickoxii.jlox;
+
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point for running Lox from Java.
+ *
+ * Scripts are compiled once into an immutable {@link CompiledScript}
+ * and then executed any number of times, each time in a
+ * {@link LoxContext} that has its own global scope and output. An
+ * engine holds no mutable state, so one engine and its compiled
+ * scripts can be shared by every thread in a service:
+ *
+ * <pre>
+ *   LoxEngine engine = new LoxEngine();
+ *   CompiledScript script = engine.compile(source);
+ *
+ *   // on any thread
+ *   LoxContext context = engine.createContext(out);
+ *   script.execute(context);
+ * </pre>
+ * */
+public final class LoxEngine {
+  public LoxEngine() {
+    // Embedders are long-lived; see LoxMetrics.
+    LoxMetrics.register();
+  }
+
+  /**
+   * Scan, parse and resolve source code.
+   *
+   * @throws LoxException If the source has syntax or resolution errors.
+   * */
+  public CompiledScript compile(String source) throws LoxException {
+    List<String> errors = new ArrayList<>();
+    List<Stmt> statements = compile(source, (line, where, message) ->
+        errors.add(ErrorReporter.format(line, where, message)));
+
+    if (!errors.isEmpty()) throw new LoxException(errors, false);
+    return new CompiledScript(statements);
+  }
+
+  /**
+   * A fresh global scope whose {@code print} output goes to stdout.
+   * */
+  public LoxContext createContext() {
+    return createContext(System.out);
+  }
+
+  /**
+   * A fresh global scope whose {@code print} output goes to {@code out}.
+   * */
+  public LoxContext createContext(PrintStream out) {
+    return new LoxContext(new Interpreter(out));
+  }
+
+  /**
+   * A fresh global scope whose {@code print} output goes to {@code out}.
+   * */
+  public LoxContext createContext(Writer out) {
+    LoxContext context = createContext();
+    context.setOutput(out);
+    return context;
+  }
+
+  /**
+   * The front half of the pipeline, shared with the command line.
+   * Resolution is skipped if scanning or parsing reported an error,
+   * since the tree may have holes in it.
+   * */
+  static List<Stmt> compile(String source, ErrorReporter reporter) {
+    CountingReporter counting = new CountingReporter(reporter);
+
+    long start = LoxMetrics.start();
+    Object event = LoxEvents.startPhase("scan");
+    Scanner scanner = new Scanner(source, counting);
+    List<Token> tokens = scanner.scanTokens();
+    LoxEvents.end(event);
+    LoxMetrics.time(LoxMetrics.SCAN_NANOS, start);
+
+    start = LoxMetrics.start();
+    event = LoxEvents.startPhase("parse");
+    Parser parser = new Parser(tokens, counting);
+    List<Stmt> statements = parser.parse();
+    LoxEvents.end(event);
+    LoxMetrics.time(LoxMetrics.PARSE_NANOS, start);
+
+    // Stop if there was any syntax error.
+    if (counting.errors > 0) return statements;
+
+    start = LoxMetrics.start();
+    event = LoxEvents.startPhase("resolve");
+    Resolver resolver = new Resolver(counting);
+    resolver.resolve(statements);
+    LoxEvents.end(event);
+    LoxMetrics.time(LoxMetrics.RESOLVE_NANOS, start);
+
+    return statements;
+  }
+
+  private static class CountingReporter implements ErrorReporter {
+    private final ErrorReporter target;
+    int errors = 0;
+
+    CountingReporter(ErrorReporter target) {
+      this.target = target;
+    }
+
+    @Override
+    public void report(int line, String where, String message) {
+      errors++;
+      target.report(line, where, message);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.ickoxii.jlox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for Lox activity, so a recording of a
+ * service that runs Lox shows scripts next to GC pauses and JIT
+ * activity. All of them are under the "Lox" category in JDK Mission
+ * Control.
+ *
+ * Events follow the usual JFR pattern: construct, {@code begin()},
+ * {@code commit()}, but only after {@link #enabled} says a recording
+ * wants them. Creating the first event starts up the JFR machinery,
+ * which costs more than a short script takes to run, so a run with no
+ * recording never creates one. Until something has started the flight
+ * recorder the check is a single field read; after that it asks the
+ * event's cached {@link EventType}.
+ *
+ * The Java stack of an interpreted Lox call is interpreter frames, so
+ * stack traces are left off.
+ * */
+final class LoxEvents {
+  private LoxEvents() {}
+
+  static final int PHASE = 0;
+  static final int CALL = 1;
+  static final int ERROR = 2;
+  static final int CLASS_DEFINITION = 3;
+
+  /**
+   * Looked up the first time a recording is running, since looking
+   * them up registers the events with the recorder.
+   * */
+  private static final class Types {
+    static final EventType[] ALL = {
+      EventType.getEventType(Phase.class),
+      EventType.getEventType(Call.class),
+      EventType.getEventType(Error.class),
+      EventType.getEventType(ClassDefinition.class),
+    };
+  }
+
+  /**
+   * Whether any recording has an event enabled, without creating one.
+   *
+   * @param event {@link #PHASE}, {@link #CALL}, {@link #ERROR} or
+   *              {@link #CLASS_DEFINITION}.
+   * */
+  static boolean enabled(int event) {
+    return FlightRecorder.isInitialized() && Types.ALL[event].isEnabled();
+  }
+
+  /**
+   * A started phase event, or null if no recording wants it. Pass it to
+   * {@link #end} either way. Typed as Object so callers never load the
+   * event class on a run without a recording.
+   * */
+  static Object startPhase(String phase) {
+    if (!enabled(PHASE)) return null;
+
+    Phase event = new Phase();
+    event.phase = phase;
+    event.begin();
+    return event;
+  }
+
+  static void end(Object event) {
+    if (event != null) ((Event) event).commit();
+  }
+
+  @Name("com.ickoxii.jlox.Phase")
+  @Label("Lox Phase")
+  @Description("Scanning, parsing, resolving or interpreting a program")
+  @Category("Lox")
+  @StackTrace(false)
+  static class Phase extends Event {
+    @Label("Phase")
+    String phase;
+  }
+
+  @Name("com.ickoxii.jlox.FunctionCall")
+  @Label("Lox Function Call")
+  @Description("A call to a Lox function or method that took longer than "
+      + "the threshold, including its callees")
+  @Category("Lox")
+  @StackTrace(false)
+  @Threshold("10 ms")
+  static class Call extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    @Description("Line the function is declared on")
+    int line;
+  }
+
+  @Name("com.ickoxii.jlox.RuntimeError")
+  @Label("Lox Runtime Error")
+  @Category("Lox")
+  @StackTrace(false)
+  static class Error extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+  }
+
+  @Name("com.ickoxii.jlox.ClassDefinition")
+  @Label("Lox Class Definition")
+  @Category("Lox")
+  @StackTrace(false)
+  static class ClassDefinition extends Event {
+    @Label("Class")
+    String name;
+
+    @Label("Superclass")
+    String superclass;
+
+    @Label("Methods")
+    int methods;
+
+    @Label("Line")
+    int line;
+  }
+}
@@ -0,0 +1,48 @@
+package com.ickoxii.jlox;
+
+import java.util.List;
+
+/**
+ * A Lox program failed to compile or failed while running.
+ *
+ * The messages are formatted exactly as the command line prints them.
+ * */
+public class LoxException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  private final List<String> errors;
+  private final boolean runtime;
+
+  LoxException(List<String> errors, boolean runtime) {
+    super(String.join("\n", errors));
+    this.errors = List.copyOf(errors);
+    this.runtime = runtime;
+  }
+
+  /**
+   * Every error found, in source order. A runtime failure has one.
+   * */
+  public List<String> getErrors() {
+    return errors;
+  }
+
+  /**
+   * Whether the program compiled and then failed while running.
+   * */
+  public boolean isRuntimeError() {
+    return runtime;
+  }
+
+  /**
+   * The exit code the command line uses for this kind of failure.
+   * */
+  public int exitCode() {
+    return runtime ? 70 : 65;
+  }
+
+  static String format(RuntimeError error) {
+    // Only a limit hit by a call made straight from Java has no line.
+    if (error.line == 0) return error.getMessage();
+    return error.getMessage() + "\n[line " + error.line + "]";
+  }
+}
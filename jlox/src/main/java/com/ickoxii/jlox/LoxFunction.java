@@ -12,9 +12,25 @@ class LoxFunction implements LoxCallable {
     this.isInitializer = isInitializer;
     this.closure = closure;
     this.declaration = declaration;
+
+    HeapCensus census = HeapCensus.active;
+    if (census != null) census.function(this);
+  }
+
+  Stmt.Function declaration() {
+    return declaration;
+  }
+
+  Environment closure() {
+    return closure;
+  }
+
+  boolean isInitializer() {
+    return isInitializer;
   }
 
   LoxFunction bind(LoxInstance instance) {
+    if (LoxMetrics.enabled) LoxMetrics.BOUND_METHODS.increment();
     Environment environment = new Environment(closure);
     environment.define("this", instance);
     return new LoxFunction(declaration, environment, isInitializer);
@@ -34,6 +50,51 @@ class LoxFunction implements LoxCallable {
   @Override
   public Object call(Interpreter interpreter,
                      List<Object> arguments) {
+    if (LoxMetrics.enabled) LoxMetrics.FUNCTION_CALLS.increment();
+    interpreter.enterCall();
+    try {
+      if (interpreter.profiler == null && interpreter.sampler == null
+          && interpreter.debugger == null && !LoxEvents.enabled(LoxEvents.CALL)) {
+        return invoke(interpreter, arguments);
+      }
+
+      return observed(interpreter, arguments, new LoxEvents.Call());
+    } finally {
+      interpreter.exitCall();
+    }
+  }
+
+  /**
+   * A call made while a profiler, debugger or flight recording is
+   * watching.
+   * */
+  private Object observed(Interpreter interpreter, List<Object> arguments,
+                          LoxEvents.Call event) {
+    Profiler profiler = interpreter.profiler;
+    Sampler sampler = interpreter.sampler;
+    Debugger debugger = interpreter.debugger;
+    if (profiler != null) profiler.enter(this);
+    if (sampler != null) sampler.push(declaration);
+    if (debugger != null) debugger.enter(this);
+    event.begin();
+    try {
+      return invoke(interpreter, arguments);
+    } finally {
+      event.end();
+      if (event.shouldCommit()) {
+        event.function = interpreter.names.of(declaration);
+        event.line = declaration.name.line;
+        event.commit();
+      }
+      if (debugger != null) debugger.exit();
+      if (sampler != null) sampler.pop();
+      if (profiler != null) profiler.exit();
+    }
+  }
+
+  private Object invoke(Interpreter interpreter, List<Object> arguments) {
+    interpreter.allocate(AllocationBudget.ENVIRONMENT
+        + AllocationBudget.VARIABLE * arguments.size(), 0);
     Environment environment = new Environment(closure);
     for (int i = 0; i < declaration.params.size(); i++) {
       environment.define(declaration.params.get(i).lexeme, arguments.get(i));
@@ -1,35 +1,115 @@
 package com.ickoxii.jlox;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class LoxInstance {
   private LoxClass klass;
-  private final Map<String, Object> fields = new HashMap<>();
+  private final SharedMap fields = new SharedMap();
+
+  // Set by freeze() and never cleared. Volatile so that a set() on
+  // any thread that starts after freeze() returns sees it.
+  private volatile boolean frozen = false;
+
+  // Methods bound to this instance once it is frozen, when neither its
+  // fields nor its class can change what a name refers to any more.
+  private Map<String, LoxFunction> boundMethods;
 
   /**
    * Instance stores state, class stores behavior
    * */
   LoxInstance(LoxClass klass) {
     this.klass = klass;
+    if (LoxMetrics.enabled) LoxMetrics.INSTANCES.increment();
+
+    HeapCensus census = HeapCensus.active;
+    if (census != null) census.instance(this);
+  }
+
+  LoxClass klass() {
+    return klass;
+  }
+
+  Map<String, Object> fields() {
+    return fields;
   }
 
   Object get(Token name) {
-    if (fields.containsKey(name.lexeme)) {
-      return fields.get(name.lexeme);
+    Object value = fields.lookup(name.lexeme);
+    if (value != SharedMap.MISSING) return value;
+
+    if (frozen) {
+      LoxFunction bound = boundMethods.get(name.lexeme);
+      if (bound != null) return bound;
     }
 
     LoxFunction method = klass.findMethod(name.lexeme);
-    if (method != null) return method.bind(this);
+    if (method != null) {
+      LoxFunction bound = method.bind(this);
+      if (frozen) boundMethods.putIfAbsent(name.lexeme, bound);
+      return bound;
+    }
 
     throw new RuntimeError(name,
         "Undefined property '" + name.lexeme + "'.");
   }
 
   void set(Token name, Object value) {
+    if (frozen) {
+      throw new RuntimeError(name,
+          "Can't set '" + name.lexeme + "' on a frozen instance.");
+    }
     fields.put(name.lexeme, value);
   }
 
+  boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * The {@code freeze(value)} native. Instances and lists, along with
+   * every instance and list reachable from their fields and elements,
+   * can't be changed afterwards. A class has no state of its own to
+   * freeze; instead, each instance of it (or of a subclass) made from
+   * then on is frozen as soon as {@code init} returns. Instances that
+   * already exist are left alone, and can be frozen one by one. Other
+   * values are returned untouched: numbers, strings, booleans and nil
+   * never change anyway, and functions, channels and tasks aren't
+   * data.
+   *
+   * A frozen object hands out the same bound method every time its
+   * method is looked up, rather than binding a new one.
+   * */
+  static Object freeze(Object value) {
+    if (value instanceof LoxClass) {
+      ((LoxClass)value).freezeInstances();
+      return value;
+    }
+
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(value);
+    while (!pending.isEmpty()) {
+      Object object = pending.pop();
+      if (object instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance)object;
+        if (instance.frozen) continue;
+
+        instance.boundMethods = new ConcurrentHashMap<>();
+        instance.frozen = true;
+        pending.addAll(instance.fields.values());
+      } else if (object instanceof LoxList) {
+        LoxList list = (LoxList)object;
+        if (list.isFrozen()) continue;
+
+        list.freeze();
+        for (int i = 0; i < list.size(); i++) pending.push(list.get(i));
+      }
+    }
+    return value;
+  }
+
   @Override
   public String toString() {
     return klass.name + " instance";
@@ -0,0 +1,245 @@
+package com.ickoxii.jlox;
+
+import java.util.Arrays;
+
+/**
+ * A Lox list: a growable array of values, made and used through the
+ * list natives ({@code list}, {@code push}, {@code pop}, {@code get},
+ * {@code slice}, {@code length}).
+ *
+ * As long as every element is a number, they are kept unboxed in a
+ * {@code double[]}, which takes a quarter of the memory of boxed
+ * Doubles and keeps them next to each other. The first element that
+ * isn't a number moves the list to an {@code Object[]} for good.
+ * Either way, {@link #get} hands out the same values that went in.
+ *
+ * Every method that allocates storage takes the interpreter it runs
+ * in and charges the allocation budget before allocating, so a
+ * runaway list can't get past {@code --max-alloc}.
+ *
+ * Lists are not synchronized. Several tasks may read one at the same
+ * time, as the parallel natives do, but one that is being changed
+ * must not be read or changed anywhere else meanwhile. A frozen list
+ * (see {@link LoxInstance#freeze}) can't be changed at all, so it can
+ * be shared freely.
+ * */
+final class LoxList {
+  static final int INITIAL_CAPACITY = 8;
+
+  // Exactly one of these is non-null.
+  private double[] numbers;
+  private Object[] elements;
+  private int size;
+
+  // See LoxInstance.freeze.
+  private volatile boolean frozen = false;
+
+  LoxList() {
+    this.numbers = new double[INITIAL_CAPACITY];
+    census();
+  }
+
+  /**
+   * A list over the first {@code size} slots of an array, which the
+   * list owns from now on.
+   * */
+  LoxList(Object[] elements, int size) {
+    census();
+    this.size = size;
+    for (int i = 0; i < size; i++) {
+      if (!(elements[i] instanceof Double)) {
+        this.elements = elements;
+        return;
+      }
+    }
+
+    this.numbers = new double[Math.max(INITIAL_CAPACITY, size)];
+    for (int i = 0; i < size; i++) numbers[i] = (double)elements[i];
+  }
+
+  /**
+   * A list over exactly the array given, which must be the only one of
+   * the two that is non-null. Unlike {@link #LoxList(Object[], int)},
+   * an {@code Object[]} of numbers stays boxed.
+   * */
+  LoxList(double[] numbers, Object[] elements, int size) {
+    this.numbers = numbers;
+    this.elements = elements;
+    this.size = size;
+    census();
+  }
+
+  private void census() {
+    HeapCensus census = HeapCensus.active;
+    if (census != null) census.list(this);
+  }
+
+  int size() {
+    return size;
+  }
+
+  Object get(int index) {
+    return numbers != null ? (Object)numbers[index] : elements[index];
+  }
+
+  /**
+   * Whether the elements are kept in a {@code double[]}.
+   * */
+  boolean isUnboxed() {
+    return numbers != null;
+  }
+
+  /**
+   * Estimated size of the backing array, for {@link HeapCensus}.
+   * */
+  long arrayBytes() {
+    return numbers != null ? AllocationBudget.numbers(numbers.length)
+        : AllocationBudget.references(elements.length);
+  }
+
+  boolean isFrozen() {
+    return frozen;
+  }
+
+  void freeze() {
+    frozen = true;
+  }
+
+  /**
+   * An empty list, charged to the interpreter's allocation budget.
+   * */
+  static LoxList create(Interpreter interpreter) {
+    interpreter.allocate(AllocationBudget.LIST
+        + AllocationBudget.numbers(INITIAL_CAPACITY), 0);
+    return new LoxList();
+  }
+
+  void add(Interpreter interpreter, Object value) {
+    checkNotFrozen();
+    if (numbers != null) {
+      if (value instanceof Double) {
+        if (size == numbers.length) {
+          int capacity = grown();
+          interpreter.allocate(AllocationBudget.numbers(capacity), 0);
+          numbers = Arrays.copyOf(numbers, capacity);
+        }
+        numbers[size++] = (double)value;
+        return;
+      }
+      box(interpreter);
+    }
+
+    if (size == elements.length) {
+      int capacity = grown();
+      interpreter.allocate(AllocationBudget.references(capacity), 0);
+      elements = Arrays.copyOf(elements, capacity);
+    }
+    elements[size++] = value;
+  }
+
+  private int grown() {
+    return Math.max(INITIAL_CAPACITY, size * 2);
+  }
+
+  /**
+   * Removes the last element and returns it.
+   * */
+  Object pop() {
+    checkNotFrozen();
+    if (size == 0) throw new RuntimeError(null, "Can't pop from an empty list.");
+
+    size--;
+    if (numbers != null) return numbers[size];
+
+    Object value = elements[size];
+    elements[size] = null;
+    return value;
+  }
+
+  /**
+   * A new list of the elements from {@code start} up to but not
+   * including {@code end}.
+   * */
+  LoxList slice(Interpreter interpreter, int start, int end) {
+    if (start > end) {
+      throw new RuntimeError(null, "Slice start is after its end.");
+    }
+
+    int length = end - start;
+    int capacity = Math.max(INITIAL_CAPACITY, length);
+    interpreter.allocate(AllocationBudget.LIST + (numbers != null
+        ? AllocationBudget.numbers(capacity) : AllocationBudget.references(capacity)), 0);
+    if (numbers != null) {
+      double[] copy = new double[capacity];
+      System.arraycopy(numbers, start, copy, 0, length);
+      return new LoxList(copy, null, length);
+    }
+
+    Object[] copy = new Object[capacity];
+    System.arraycopy(elements, start, copy, 0, length);
+    return new LoxList(null, copy, length);
+  }
+
+  /**
+   * Moves the elements from {@link #numbers} to {@link #elements},
+   * boxing each one.
+   * */
+  private void box(Interpreter interpreter) {
+    int capacity = Math.max(INITIAL_CAPACITY, numbers.length);
+    interpreter.allocate(AllocationBudget.references(capacity)
+        + AllocationBudget.NUMBER * size, 0);
+    elements = new Object[capacity];
+    for (int i = 0; i < size; i++) elements[i] = numbers[i];
+    numbers = null;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) throw new RuntimeError(null, "Can't change a frozen list.");
+  }
+
+  /**
+   * The list a native was given, or a runtime error saying it wanted
+   * one.
+   * */
+  static LoxList check(Object value) {
+    if (value instanceof LoxList) return (LoxList)value;
+    throw new RuntimeError(null, "Expected a list.");
+  }
+
+  /**
+   * A native's index argument, which must be a whole number that is
+   * in range.
+   * */
+  int index(Object value) {
+    return index(value, size - 1);
+  }
+
+  /**
+   * A native's slice bound, which may also be the length of the list.
+   * */
+  int bound(Object value) {
+    return index(value, size);
+  }
+
+  private static int index(Object value, int max) {
+    if (!(value instanceof Double)) {
+      throw new RuntimeError(null, "List index must be a number.");
+    }
+
+    double index = (double)value;
+    if (index != Math.floor(index) || index < 0 || index > max) {
+      throw new RuntimeError(null, "List index out of range.");
+    }
+    return (int)index;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) text.append(", ");
+      text.append(Interpreter.stringify(get(i)));
+    }
+    return text.append("]").toString();
+  }
+}
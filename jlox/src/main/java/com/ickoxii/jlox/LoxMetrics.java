@@ -0,0 +1,129 @@
+package com.ickoxii.jlox;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Runtime counters for every interpreter in the JVM, published as an
+ * MBean so jconsole or any JMX client can watch a long-running embedded
+ * interpreter.
+ *
+ * The MBean is registered by the long-lived entry points, every
+ * {@link LoxEngine} and the daemon, or at startup with
+ * {@code -Djlox.metrics=true}. A plain {@code jlox script.lox} run
+ * never starts the platform MBean server, which costs more than most
+ * scripts take to run.
+ *
+ * Counting starts off unless the JVM is started with
+ * {@code -Djlox.metrics=true}, and can be switched on and off at any
+ * time through the MBean's {@code Enabled} attribute. While it is off
+ * each guarded increment costs one field read. Steps are not counted
+ * one by one: the interpreter adds them in batches when it checks its
+ * limits (see {@link Interpreter#flushSteps}). While counting is on
+ * each increment is a {@link LongAdder}, which spreads updates from
+ * different threads over separate cells instead of contending on one.
+ * */
+final class LoxMetrics implements LoxMetricsMBean {
+  static volatile boolean enabled = Boolean.getBoolean("jlox.metrics");
+
+  static final String NAME = "com.ickoxii.jlox:type=Metrics";
+
+  static final LongAdder FUNCTION_CALLS = new LongAdder();
+  static final LongAdder ENVIRONMENTS = new LongAdder();
+  static final LongAdder INSTANCES = new LongAdder();
+  static final LongAdder BOUND_METHODS = new LongAdder();
+  static final LongAdder RUNTIME_ERRORS = new LongAdder();
+  static final LongAdder STEPS = new LongAdder();
+  static final LongAdder SCAN_NANOS = new LongAdder();
+  static final LongAdder PARSE_NANOS = new LongAdder();
+  static final LongAdder RESOLVE_NANOS = new LongAdder();
+  static final LongAdder INTERPRET_NANOS = new LongAdder();
+
+  private static boolean registered = false;
+
+  static {
+    if (enabled) register();
+  }
+
+  private LoxMetrics() {}
+
+  /**
+   * Publishes the MBean, once.
+   * */
+  static synchronized void register() {
+    if (registered) return;
+    registered = true;
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          new LoxMetrics(), new ObjectName(NAME));
+    } catch (JMException e) {
+      // Already registered, e.g. by a copy of jlox in another class
+      // loader. Counting still works; this copy just isn't visible.
+    }
+  }
+
+  /**
+   * A timestamp to pass to a later {@link #time}, or 0 when metrics
+   * are off.
+   * */
+  static long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Adds the time since {@code start} to a {@code *_NANOS} counter,
+   * unless metrics were off when it was taken.
+   * */
+  static void time(LongAdder counter, long start) {
+    if (start != 0) counter.add(System.nanoTime() - start);
+  }
+
+  @Override
+  public boolean isEnabled() { return enabled; }
+
+  @Override
+  public void setEnabled(boolean on) { enabled = on; }
+
+  @Override
+  public long getFunctionCalls() { return FUNCTION_CALLS.sum(); }
+
+  @Override
+  public long getEnvironmentsAllocated() { return ENVIRONMENTS.sum(); }
+
+  @Override
+  public long getInstancesCreated() { return INSTANCES.sum(); }
+
+  @Override
+  public long getBoundMethodsCreated() { return BOUND_METHODS.sum(); }
+
+  @Override
+  public long getRuntimeErrors() { return RUNTIME_ERRORS.sum(); }
+
+  @Override
+  public long getStepsExecuted() { return STEPS.sum(); }
+
+  @Override
+  public long getScanNanos() { return SCAN_NANOS.sum(); }
+
+  @Override
+  public long getParseNanos() { return PARSE_NANOS.sum(); }
+
+  @Override
+  public long getResolveNanos() { return RESOLVE_NANOS.sum(); }
+
+  @Override
+  public long getInterpretNanos() { return INTERPRET_NANOS.sum(); }
+
+  @Override
+  public void reset() {
+    for (LongAdder counter : List.of(FUNCTION_CALLS, ENVIRONMENTS,
+        INSTANCES, BOUND_METHODS, RUNTIME_ERRORS, STEPS, SCAN_NANOS,
+        PARSE_NANOS, RESOLVE_NANOS, INTERPRET_NANOS)) {
+      counter.reset();
+    }
+  }
+}
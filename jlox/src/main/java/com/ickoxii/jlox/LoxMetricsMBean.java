@@ -0,0 +1,39 @@
+package com.ickoxii.jlox;
+
+/**
+ * Interpreter counters exposed over JMX as
+ * {@code com.ickoxii.jlox:type=Metrics}. Counts and times are totals
+ * across every interpreter in the JVM since startup or the last
+ * {@link #reset()}, counted only while {@code Enabled} is true. Times
+ * are in nanoseconds.
+ * */
+public interface LoxMetricsMBean {
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  long getFunctionCalls();
+
+  long getEnvironmentsAllocated();
+
+  long getInstancesCreated();
+
+  long getBoundMethodsCreated();
+
+  long getRuntimeErrors();
+
+  /**
+   * Loop iterations plus calls, as counted by {@code --max-steps}.
+   * */
+  long getStepsExecuted();
+
+  long getScanNanos();
+
+  long getParseNanos();
+
+  long getResolveNanos();
+
+  long getInterpretNanos();
+
+  void reset();
+}
@@ -0,0 +1,195 @@
+package com.ickoxii.jlox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The {@code parallelMap(list, fn)}, {@code parallelFilter(list, fn)}
+ * and {@code parallelReduce(list, fn, initial)} natives.
+ *
+ * The list is split into chunks that run as fork-join tasks on the
+ * common pool, about four per worker thread. Each chunk calls
+ * {@code fn} in an interpreter of its own (see
+ * {@link Interpreter#beginWorker}), so chunks have separate call stacks
+ * and scopes while closures, globals and the list itself are shared.
+ * Workers count against the run's step limit and stop when it is
+ * cancelled.
+ * {@code fn} should only read shared state; {@link LoxTask} describes
+ * what holds when it doesn't. The list must not change meanwhile.
+ *
+ * Results keep the list's order. parallelReduce folds each chunk from
+ * its first element, then folds the chunk results into
+ * {@code initial} left to right, so {@code fn} has to be associative
+ * but needn't be commutative, and {@code initial} is used once.
+ * */
+final class LoxParallel {
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private LoxParallel() {}
+
+  static LoxList map(Interpreter interpreter, LoxList list, LoxCallable fn) {
+    interpreter.allocate(AllocationBudget.LIST
+        + AllocationBudget.references(list.size()), 0);
+    Object[] results = new Object[list.size()];
+    invoke(interpreter,
+        new Apply(interpreter, list, fn, results, 0, list.size(), grain(list)));
+    return new LoxList(results, results.length);
+  }
+
+  static LoxList filter(Interpreter interpreter, LoxList list, LoxCallable fn) {
+    interpreter.allocate(AllocationBudget.references(list.size()), 0);
+    Object[] keep = new Object[list.size()];
+    invoke(interpreter, new Apply(interpreter, list, fn, keep, 0, list.size(), grain(list)));
+
+    LoxList result = LoxList.create(interpreter);
+    for (int i = 0; i < keep.length; i++) {
+      if (Interpreter.isTruthy(keep[i])) result.add(interpreter, list.get(i));
+    }
+    return result;
+  }
+
+  static Object reduce(Interpreter interpreter, LoxList list, LoxCallable fn,
+                       Object initial) {
+    if (list.size() == 0) return initial;
+
+    Object folded = invoke(interpreter,
+        new Fold(interpreter, list, fn, 0, list.size(), grain(list)));
+    return fn.call(interpreter, Arrays.asList(initial, folded));
+  }
+
+  /**
+   * Runs the root task on the pool. The caller's tenant slot, if any,
+   * is given up meanwhile, since the workers queue for slots of their
+   * own.
+   * */
+  private static <T> T invoke(Interpreter interpreter, ForkJoinTask<T> task) {
+    interpreter.releaseSlot();
+    try {
+      return ForkJoinPool.commonPool().invoke(task);
+    } finally {
+      interpreter.acquireSlot();
+    }
+  }
+
+  private static int grain(LoxList list) {
+    int chunks = ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD;
+    return Math.max(1, list.size() / chunks);
+  }
+
+  /**
+   * Calls fn on each element in [from, to), storing what it returns.
+   * */
+  private static class Apply extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Interpreter interpreter;
+    private final LoxList list;
+    private final LoxCallable fn;
+    private final Object[] results;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    Apply(Interpreter interpreter, LoxList list, LoxCallable fn,
+          Object[] results, int from, int to, int grain) {
+      this.interpreter = interpreter;
+      this.list = list;
+      this.fn = fn;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        Interpreter worker = interpreter.beginWorker();
+        try {
+          for (int i = from; i < to; i++) {
+            results[i] = fn.call(worker, Collections.singletonList(list.get(i)));
+          }
+        } finally {
+          worker.endWorker();
+        }
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(new Apply(interpreter, list, fn, results, from, middle, grain),
+                new Apply(interpreter, list, fn, results, middle, to, grain));
+    }
+  }
+
+  /**
+   * Folds the elements in [from, to), which must not be empty.
+   * */
+  private static class Fold extends RecursiveTask<Object> {
+    private static final long serialVersionUID = 1L;
+
+    private final Interpreter interpreter;
+    private final LoxList list;
+    private final LoxCallable fn;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    Fold(Interpreter interpreter, LoxList list, LoxCallable fn,
+         int from, int to, int grain) {
+      this.interpreter = interpreter;
+      this.list = list;
+      this.fn = fn;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected Object compute() {
+      if (to - from <= grain) {
+        return fold(list.get(from), from + 1, to);
+      }
+
+      int middle = (from + to) >>> 1;
+      Fold left = new Fold(interpreter, list, fn, from, middle, grain);
+      Fold right = new Fold(interpreter, list, fn, middle, to, grain);
+      right.fork();
+      Object leftResult = left.compute();
+      return combine(leftResult, right.join());
+    }
+
+    /**
+     * Folds the elements in [from, to) into {@code result}.
+     * */
+    private Object fold(Object result, int from, int to) {
+      // A chunk of one element calls nothing, so needs no worker.
+      if (from == to) return result;
+
+      Interpreter worker = interpreter.beginWorker();
+      try {
+        for (int i = from; i < to; i++) {
+          result = fn.call(worker, Arrays.asList(result, list.get(i)));
+        }
+        return result;
+      } finally {
+        worker.endWorker();
+      }
+    }
+
+    /**
+     * Joins the results of two halves, the only call a split makes.
+     * */
+    private Object combine(Object left, Object right) {
+      Interpreter worker = interpreter.beginWorker();
+      try {
+        return fn.call(worker, Arrays.asList(left, right));
+      } finally {
+        worker.endWorker();
+      }
+    }
+  }
+}
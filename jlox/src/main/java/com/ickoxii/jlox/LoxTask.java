@@ -0,0 +1,102 @@
+package com.ickoxii.jlox;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A Lox function running on a thread of its own, started by the
+ * {@code spawn(fn)} native and waited for by {@code join(task)}.
+ *
+ * The task gets an interpreter of its own (see
+ * {@link Interpreter#spawn}), so its current environment and call
+ * depth are its own, while its steps count against the run's limit,
+ * and globals and every object it can reach are shared. What tasks can rely on when sharing them:
+ *
+ *   Everything written before {@code spawn} is visible to the task.
+ *   Everything the task wrote is visible after {@code join} returns.
+ *   In between, each read or write of a single variable or field is
+ *   atomic, and a write is seen by reads on other threads that come
+ *   after it. Nothing bigger is: {@code count = count + 1} on two
+ *   tasks at once can lose an update.
+ *
+ * The last rule comes from {@link SharedMap}, which every environment
+ * and instance stores its values in.
+ * */
+final class LoxTask {
+  private final Interpreter interpreter;
+  private final LoxCallable function;
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  // Published by done.
+  private Object result;
+  private RuntimeError failure;
+
+  LoxTask(Interpreter interpreter, LoxCallable function) {
+    this.interpreter = interpreter;
+    this.function = function;
+  }
+
+  void run() {
+    interpreter.acquireSlot();
+    try {
+      result = function.call(interpreter, List.of());
+    } catch (RuntimeError error) {
+      failure = error;
+    } catch (StackOverflowError error) {
+      failure = new RuntimeError(null, "Stack overflow.");
+    } catch (RuntimeException | Error error) {
+      // A bug in a native. join has to report it rather than return
+      // nil as if the task had succeeded.
+      failure = new RuntimeError(null, "Internal error: " + error);
+    } finally {
+      interpreter.flushSteps();
+      interpreter.releaseSlot();
+      done.countDown();
+    }
+  }
+
+  void cancel() {
+    interpreter.stop();
+  }
+
+  /**
+   * Waits for the task to finish, ignoring how it went.
+   * */
+  void await() {
+    boolean interrupted = false;
+    while (done.getCount() > 0) {
+      try {
+        done.await();
+      } catch (InterruptedException error) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  /**
+   * The function's return value. A runtime error in the task is
+   * thrown again here, without a line, for the {@code join} call to
+   * fill in.
+   * */
+  Object join() {
+    try {
+      done.await();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted while joining a task.");
+    }
+
+    if (failure != null) {
+      String where = failure.line > 0 ? " [line " + failure.line + "]" : "";
+      throw new RuntimeError(null,
+          "Task failed: " + failure.getMessage() + where);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "<task>";
+  }
+}
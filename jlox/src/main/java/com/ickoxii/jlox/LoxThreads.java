@@ -0,0 +1,30 @@
+package com.ickoxii.jlox;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Where threads for Lox code come from.
+ *
+ * Virtual threads where the JVM has them (Java 21 and later), looked
+ * up reflectively so the interpreter still builds and runs on Java 17,
+ * where daemon platform threads are used instead.
+ * */
+final class LoxThreads {
+  static final ThreadFactory FACTORY = factory();
+
+  private LoxThreads() {}
+
+  private static ThreadFactory factory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory)Class.forName("java.lang.Thread$Builder")
+          .getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException error) {
+      return runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+}
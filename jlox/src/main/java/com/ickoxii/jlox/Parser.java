@@ -25,13 +25,17 @@ import java.lang.RuntimeException;
  * */
 class Parser {
   /** A simple sentinel class used to unwind the parse */
-  private static class ParseError extends RuntimeException {}
+  private static class ParseError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
 
   private final List<Token> tokens;
+  private final ErrorReporter reporter;
   private int current = 0;
 
-  Parser(List<Token> tokens) {
+  Parser(List<Token> tokens, ErrorReporter reporter) {
     this.tokens = tokens;
+    this.reporter = reporter;
   }
 
   List<Stmt> parse() {
@@ -82,7 +86,7 @@ class Parser {
 
     consume(RIGHT_BRACE, "Expect '}' after class body.");
 
-    return new Stmt.Class(name, superclass, methods);
+    return at(name, new Stmt.Class(name, superclass, methods));
   }
 
   /**
@@ -94,12 +98,25 @@ class Parser {
     if (match(PRINT)) return printStatement();
     if (match(RETURN)) return returnStatement();
     if (match(WHILE)) return whileStatement();
-    if (match(LEFT_BRACE)) return new Stmt.Block(block());
+    if (match(LEFT_BRACE)) {
+      Token brace = previous();
+      return at(brace, new Stmt.Block(block()));
+    }
 
     return expressionStatement();
   }
 
+  /**
+   * Records the line a statement starts on, for tools that report
+   * where a program is (profilers, the debugger).
+   * */
+  private <T extends Stmt> T at(Token token, T stmt) {
+    stmt.line = token.line;
+    return stmt;
+  }
+
   private Stmt forStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
     Stmt initializer;
@@ -130,25 +147,26 @@ class Parser {
     // the original body followed by an expression statement
     // that evaluates the increment.
     if (increment != null) {
-      body = new Stmt.Block(
+      body = at(keyword, new Stmt.Block(
           Arrays.asList(
               body,
-              new Stmt.Expression(increment)));
+              at(keyword, new Stmt.Expression(increment)))));
     }
 
     // If condition is omitted, make an infinite loop
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = at(keyword, new Stmt.While(condition, body));
 
     // If there is an initializer, it runs once before the entire loop
     if (initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
+      body = at(keyword, new Stmt.Block(Arrays.asList(initializer, body)));
     }
 
     return body;
   }
 
   private Stmt ifStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'if'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after if condition.");
@@ -159,13 +177,14 @@ class Parser {
       elseBranch = statement();
     }
 
-    return new Stmt.If(condition, thenBranch, elseBranch);
+    return at(keyword, new Stmt.If(condition, thenBranch, elseBranch));
   }
 
   private Stmt printStatement() {
+    Token keyword = previous();
     Expr value = expression();
     consume(SEMICOLON, "Expect ';' after value.");
-    return new Stmt.Print(value);
+    return at(keyword, new Stmt.Print(value));
   }
 
   private Stmt returnStatement() {
@@ -176,13 +195,14 @@ class Parser {
     }
 
     consume(SEMICOLON, "Expect ':' after return value.");
-    return new Stmt.Return(keyword, value);
+    return at(keyword, new Stmt.Return(keyword, value));
   }
 
   private Stmt expressionStatement() {
+    Token start = peek();
     Expr expr = expression();
     consume(SEMICOLON, "Expect ';' after expression.");
-    return new Stmt.Expression(expr);
+    return at(start, new Stmt.Expression(expr));
   }
 
   private List<Stmt> block() {
@@ -214,7 +234,7 @@ class Parser {
 
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
     List<Stmt> body = block();
-    return new Stmt.Function(name, parameters, body);
+    return at(name, new Stmt.Function(name, parameters, body));
   }
 
   private Expr assignment() {
@@ -271,16 +291,17 @@ class Parser {
     }
 
     consume(SEMICOLON, "Expect ';' after variable declaration.");
-    return new Stmt.Var(name, initializer);
+    return at(name, new Stmt.Var(name, initializer));
   }
 
   private Stmt whileStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'while'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after condition.");
     Stmt body = statement();
 
-    return new Stmt.While(condition, body);
+    return at(keyword, new Stmt.While(condition, body));
   }
 
   /**
@@ -465,7 +486,7 @@ class Parser {
    * unwind or not.
    * */
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    reporter.error(token, message);
     return new ParseError();
   }
 
@@ -0,0 +1,48 @@
+package com.ickoxii.jlox;
+
+/**
+ * A statement wrapped so that a hook runs right before it does.
+ *
+ * Probes are not produced by the parser. {@link Probes} swaps them
+ * into a resolved tree when a debugger or sampler needs to see every
+ * statement, and swaps the original nodes back when it no longer does,
+ * so a plain run never pays for them.
+ *
+ * The tree is shared with every task and parallel worker the program
+ * starts, but the hook belongs to one interpreter's tool and isn't
+ * thread-safe, so a probe only fires when its owner runs it. Other
+ * interpreters pass straight through to the statement.
+ * */
+final class Probe extends Stmt {
+  /**
+   * Called with the wrapped statement before it runs.
+   * */
+  interface Hook {
+    void before(Stmt stmt);
+  }
+
+  final Stmt target;
+  private final Interpreter owner;
+  private final Hook hook;
+
+  /**
+   * Probes standing in for the branch of an {@code if} or the body of
+   * a {@code while} can't be swapped out, so they are switched off
+   * instead.
+   * */
+  boolean active;
+
+  Probe(Stmt target, Interpreter owner, Hook hook, boolean active) {
+    this.target = target;
+    this.owner = owner;
+    this.hook = hook;
+    this.active = active;
+    this.line = target.line;
+  }
+
+  @Override
+  <R> R accept(Visitor<R> visitor) {
+    if (active && visitor == owner) hook.before(target);
+    return target.accept(visitor);
+  }
+}
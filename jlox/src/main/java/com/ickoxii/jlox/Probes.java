@@ -0,0 +1,122 @@
+package com.ickoxii.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Every place in a resolved program where a {@link Probe} can go.
+ *
+ * Statements that sit in a list (the program, a block, a function
+ * body) are probed by replacing the list element, which takes effect
+ * the next time the list is read, even in a block that is already
+ * running. The branches of an {@code if} and the body of a
+ * {@code while} are final fields, so when the index is built those
+ * statements are rebuilt once around a switched-off probe that
+ * {@link #install} turns on and off.
+ *
+ * Building the index copies the top-level list, which may not be
+ * writable, and writes to the block and function body lists of the
+ * tree in place. Run {@link #statements} instead of the original
+ * list. A tree can only be indexed once.
+ * */
+final class Probes {
+  /**
+   * One probe and where it goes.
+   * */
+  private static class Slot {
+    final List<Stmt> list;
+    final int index;
+    final Probe probe;
+
+    Slot(List<Stmt> list, int index, Probe probe) {
+      this.list = list;
+      this.index = index;
+      this.probe = probe;
+    }
+
+    void set(boolean installed) {
+      if (list == null) {
+        probe.active = installed;
+      } else {
+        list.set(index, installed ? probe : probe.target);
+      }
+    }
+  }
+
+  final List<Stmt> statements;
+  private final Interpreter owner;
+  private final Probe.Hook hook;
+  private final List<Slot> slots = new ArrayList<>();
+
+  /**
+   * @param owner The only interpreter the hook is called for.
+   * */
+  Probes(List<Stmt> program, Interpreter owner, Probe.Hook hook) {
+    this.statements = new ArrayList<>(program);
+    this.owner = owner;
+    this.hook = hook;
+    index(statements);
+  }
+
+  /**
+   * Installs the probes on statements whose line matches and removes
+   * all others.
+   * */
+  void install(IntPredicate lines) {
+    for (Slot slot : slots) {
+      slot.set(lines.test(slot.probe.line));
+    }
+  }
+
+  /**
+   * Whether some statement starts on this line.
+   * */
+  boolean covers(int line) {
+    for (Slot slot : slots) {
+      if (slot.probe.line == line) return true;
+    }
+    return false;
+  }
+
+  private void index(List<Stmt> list) {
+    for (int i = 0; i < list.size(); i++) {
+      Stmt stmt = index(list.get(i));
+      list.set(i, stmt);
+      slots.add(new Slot(list, i, new Probe(stmt, owner, hook, true)));
+    }
+  }
+
+  private Stmt index(Stmt stmt) {
+    if (stmt instanceof Stmt.Block) {
+      index(((Stmt.Block)stmt).statements);
+    } else if (stmt instanceof Stmt.Function) {
+      index(((Stmt.Function)stmt).body);
+    } else if (stmt instanceof Stmt.Class) {
+      for (Stmt.Function method : ((Stmt.Class)stmt).methods) {
+        index(method.body);
+      }
+    } else if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If)stmt;
+      Stmt rebuilt = new Stmt.If(ifStmt.condition, branch(ifStmt.thenBranch),
+          branch(ifStmt.elseBranch));
+      rebuilt.line = stmt.line;
+      return rebuilt;
+    } else if (stmt instanceof Stmt.While) {
+      Stmt.While whileStmt = (Stmt.While)stmt;
+      Stmt rebuilt = new Stmt.While(whileStmt.condition,
+          branch(whileStmt.body));
+      rebuilt.line = stmt.line;
+      return rebuilt;
+    }
+    return stmt;
+  }
+
+  private Stmt branch(Stmt stmt) {
+    if (stmt == null) return null;
+
+    Probe probe = new Probe(index(stmt), owner, hook, false);
+    slots.add(new Slot(null, 0, probe));
+    return probe;
+  }
+}
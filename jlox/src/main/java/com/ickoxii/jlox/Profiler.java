@@ -0,0 +1,230 @@
+package com.ickoxii.jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instrumenting profiler behind {@code --profile}.
+ *
+ * {@link LoxFunction#call} and {@link LoxClass#call} report every
+ * entry and exit while an interpreter has a profiler installed. For
+ * each function this records how often it was called, its inclusive
+ * time (including callees) and self time (excluding them), and how
+ * often each caller called each callee. Time spent in a recursive
+ * function counts once towards its inclusive time, at the outermost
+ * call.
+ *
+ * Calls are also accumulated into a calling-context tree, one node
+ * per distinct stack, which is written out as collapsed stacks: one
+ * line per stack, frames separated by {@code ;}, followed by the self
+ * time in microseconds. That is the input format of flamegraph.pl and
+ * speedscope.
+ *
+ * Methods are named {@code Class.method} and constructor calls
+ * {@code new Class}. Code outside any function is {@code <script>}.
+ * */
+final class Profiler {
+  static final String SCRIPT = "<script>";
+
+  /**
+   * Totals for one function.
+   * */
+  static class Stats {
+    final String name;
+    long calls;
+    long inclusive;
+    long self;
+    int active;
+
+    Stats(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * A node in the calling-context tree.
+   * */
+  private static class Node {
+    final Stats stats;
+    final Map<Stats, Node> children = new LinkedHashMap<>();
+    long self;
+
+    Node(Stats stats) {
+      this.stats = stats;
+    }
+  }
+
+  /**
+   * A call in progress.
+   * */
+  private static class Frame {
+    final Node node;
+    final long start;
+    long children;
+
+    Frame(Node node, long start) {
+      this.node = node;
+      this.start = start;
+    }
+  }
+
+  private final FunctionNames names;
+  private final Map<Object, Stats> stats = new IdentityHashMap<>();
+  private final Map<Stats, Map<Stats, Long>> edges = new HashMap<>();
+  private final List<Frame> stack = new ArrayList<>();
+  private final Node root;
+  private final long start = System.nanoTime();
+
+  Profiler(FunctionNames names) {
+    this.names = names;
+    Stats script = new Stats(SCRIPT);
+    script.calls = 1;
+    script.active = 1;
+    root = new Node(script);
+    stack.add(new Frame(root, start));
+  }
+
+  void enter(LoxFunction function) {
+    enter(statsFor(function.declaration()));
+  }
+
+  void enter(LoxClass klass) {
+    enter(statsFor(klass));
+  }
+
+  private void enter(Stats callee) {
+    Frame caller = stack.get(stack.size() - 1);
+    Node node = caller.node.children.computeIfAbsent(callee, Node::new);
+
+    callee.calls++;
+    callee.active++;
+    edges.computeIfAbsent(caller.node.stats, key -> new LinkedHashMap<>())
+         .merge(callee, 1L, Long::sum);
+
+    stack.add(new Frame(node, System.nanoTime()));
+  }
+
+  void exit() {
+    long elapsed = System.nanoTime() - stack.get(stack.size() - 1).start;
+    Frame frame = stack.remove(stack.size() - 1);
+    Stats callee = frame.node.stats;
+
+    long self = elapsed - frame.children;
+    callee.self += self;
+    frame.node.self += self;
+    if (--callee.active == 0) callee.inclusive += elapsed;
+
+    stack.get(stack.size() - 1).children += elapsed;
+  }
+
+  private Stats statsFor(Stmt.Function declaration) {
+    Stats result = stats.get(declaration);
+    if (result == null) {
+      result = new Stats(names.of(declaration));
+      stats.put(declaration, result);
+    }
+    return result;
+  }
+
+  private Stats statsFor(LoxClass klass) {
+    Stats result = stats.get(klass);
+    if (result == null) {
+      result = new Stats("new " + klass.name);
+      stats.put(klass, result);
+    }
+    return result;
+  }
+
+  /**
+   * Totals so far, with the time since the profiler started billed to
+   * {@code <script>}. Calls still on the stack aren't counted.
+   * */
+  List<Stats> snapshot() {
+    long total = System.nanoTime() - start;
+    Stats script = root.stats;
+    script.inclusive = total;
+    script.self = total - stack.get(0).children;
+    root.self = script.self;
+
+    List<Stats> all = new ArrayList<>(stats.values());
+    all.add(script);
+    all.sort(Comparator.comparingLong((Stats s) -> s.self).reversed());
+    return all;
+  }
+
+  /**
+   * Functions by self time, then caller to callee edges by count.
+   * */
+  private void writeReport(Writer writer, List<Stats> all) {
+    long total = root.stats.inclusive;
+    PrintWriter out = new PrintWriter(writer);
+
+    out.printf("%12s %12s %7s %12s %7s  %s%n",
+        "calls", "self ms", "self%", "total ms", "total%", "function");
+    for (Stats s : all) {
+      out.printf("%12d %12.3f %6.1f%% %12.3f %6.1f%%  %s%n",
+          s.calls, s.self / 1e6, 100.0 * s.self / total,
+          s.inclusive / 1e6, 100.0 * s.inclusive / total, s.name);
+    }
+
+    List<Map.Entry<String, Long>> calls = new ArrayList<>();
+    for (Map.Entry<Stats, Map<Stats, Long>> caller : edges.entrySet()) {
+      for (Map.Entry<Stats, Long> callee : caller.getValue().entrySet()) {
+        calls.add(Map.entry(caller.getKey().name + " -> "
+            + callee.getKey().name, callee.getValue()));
+      }
+    }
+    calls.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+    out.println();
+    out.printf("%12s  %s%n", "calls", "caller -> callee");
+    for (Map.Entry<String, Long> call : calls) {
+      out.printf("%12d  %s%n", call.getValue(), call.getKey());
+    }
+    out.flush();
+  }
+
+  /**
+   * One line per distinct stack, for flamegraph tools.
+   * */
+  private void writeCollapsed(Writer writer) {
+    PrintWriter out = new PrintWriter(writer);
+    writeCollapsed(out, root, root.stats.name);
+    out.flush();
+  }
+
+  private void writeCollapsed(PrintWriter out, Node node, String path) {
+    long micros = node.self / 1000;
+    if (micros > 0) out.println(path + " " + micros);
+
+    for (Node child : node.children.values()) {
+      writeCollapsed(out, child, path + ";" + child.stats.name);
+    }
+  }
+
+  /**
+   * Writes {@code <prefix>.txt} and {@code <prefix>.collapsed}.
+   *
+   * @throws IOException If either file can't be written.
+   * */
+  void write(String prefix) throws IOException {
+    List<Stats> all = snapshot();
+    try (Writer report = Files.newBufferedWriter(Path.of(prefix + ".txt"))) {
+      writeReport(report, all);
+    }
+    try (Writer collapsed =
+             Files.newBufferedWriter(Path.of(prefix + ".collapsed"))) {
+      writeCollapsed(collapsed);
+    }
+  }
+}
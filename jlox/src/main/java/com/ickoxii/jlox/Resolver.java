@@ -9,7 +9,7 @@ import java.util.Stack;
  * Visits every node in the syntax tree, implementing visitor abstraction.
  * */
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
+  private final ErrorReporter reporter;
   /**
    * Keeps track of the stack of scopes currently in scope.
    *
@@ -53,8 +53,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    * */
   private ClassType currentClass = ClassType.NONE;
 
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+  Resolver(ErrorReporter reporter) {
+    this.reporter = reporter;
   }
 
   /**
@@ -90,7 +90,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
      * }
      * */
     if (scope.containsKey(name.lexeme)) {
-      Lox.error(name,
+      reporter.error(name,
           "Already a variable with this name in this scope.");
     }
 
@@ -142,11 +142,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    *
    * If we walk through all block scopes and never find
    * the variable, we leave it unresolved and assume its global.
+   *
+   * The depth is stored on the node itself rather than in the
+   * Interpreter, so a resolved tree can be saved and reused
+   * without re-running this pass.
    * */
   private void resolveLocal(Expr expr, Token name) {
     for (int i = scopes.size() - 1; i >= 0; --i) {
       if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
+        expr.depth = scopes.size() - 1 - i;
         return;
       }
     }
@@ -187,7 +191,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitVariableExpr(Expr.Variable expr) {
     if (!scopes.isEmpty() &&
         scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-      Lox.error(expr.name,
+      reporter.error(expr.name,
           "Can't read local variable in its own initializer.");
     }
 
@@ -267,10 +271,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword,
+      reporter.error(expr.keyword,
           "Can't use 'super' outside of a class.");
     } else if (currentClass != ClassType.SUBCLASS) {
-      Lox.error(expr.keyword,
+      reporter.error(expr.keyword,
           "Can't use 'super' in a class with no superclass.");
     }
 
@@ -281,7 +285,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword,
+      reporter.error(expr.keyword,
           "Can't use 'this' outside of a class.");
       return null;
     }
@@ -342,12 +346,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Can't return from top-level code.");
+      reporter.error(stmt.keyword, "Can't return from top-level code.");
     }
 
     if (stmt.value != null) {
       if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword,
+        reporter.error(stmt.keyword,
             "Can't return a value from an initializer.");
       }
 
@@ -389,7 +393,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     if (stmt.superclass != null &&
         stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-      Lox.error(stmt.superclass.name,
+      reporter.error(stmt.superclass.name,
           "A class can't inherit from itself.");
     }
 
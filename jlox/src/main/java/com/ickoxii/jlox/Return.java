@@ -1,6 +1,8 @@
 package com.ickoxii.jlox;
 
 class Return extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
   final Object value;
 
   Return(Object value) {
@@ -1,10 +1,44 @@
 package com.ickoxii.jlox;
 
 class RuntimeError extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
   final Token token;
 
+  /**
+   * The line the error happened on, or 0 when it isn't known.
+   * */
+  final int line;
+
   RuntimeError(Token token, String message) {
+    this(token, token != null ? token.line : 0, message);
+  }
+
+  /**
+   * An error with no token to point at, such as a limit hit at a
+   * safepoint.
+   * */
+  RuntimeError(int line, String message) {
+    this(null, line, message);
+  }
+
+  private RuntimeError(Token token, int line, String message) {
     super(message);
     this.token = token;
+    this.line = line;
+
+    // Errors thrown by natives without a line are thrown again by
+    // the call site with one. Count them once, there.
+    if (line == 0) return;
+    if (LoxMetrics.enabled) LoxMetrics.RUNTIME_ERRORS.increment();
+
+    if (!LoxEvents.enabled(LoxEvents.ERROR)) return;
+
+    LoxEvents.Error event = new LoxEvents.Error();
+    if (event.shouldCommit()) {
+      event.message = message;
+      event.line = line;
+      event.commit();
+    }
   }
 }
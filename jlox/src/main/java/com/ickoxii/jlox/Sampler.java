@@ -0,0 +1,192 @@
+package com.ickoxii.jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler behind {@code --sample}.
+ *
+ * While installed, the interpreter keeps a shadow stack of the Lox
+ * functions being run: {@link LoxFunction#call} pushes and pops a
+ * frame, and a {@link Probe} on every statement stores its line in
+ * the top frame. That is two array stores and a volatile write per
+ * call and one array store per statement, cheap enough to leave on.
+ *
+ * A daemon thread copies the stack at a fixed frequency without
+ * stopping the interpreter. Frames are read racily, so a sample taken
+ * mid-call can be off by a frame or a line; over thousands of samples
+ * that is noise. Each sample counts towards:
+ *
+ *   self   the function on top of the stack
+ *   total  every function on the stack, once per sample
+ *   lines  the line the top function is on
+ *
+ * Stacks deeper than {@link #CAPACITY} frames keep their outermost
+ * frames only.
+ * */
+final class Sampler {
+  static final int CAPACITY = 1024;
+  static final int DEFAULT_HZ = 1000;
+
+  private final FunctionNames names;
+  private final long periodNanos;
+
+  // Written only by the interpreter thread. Slot 0 is <script>.
+  private final Stmt.Function[] functions = new Stmt.Function[CAPACITY];
+  private final int[] lines = new int[CAPACITY];
+  private int top = 0;
+  private volatile int depth = 0;
+
+  // Owned by the sampler thread until it is stopped.
+  private final Map<String, long[]> functionSamples = new HashMap<>();
+  private final Map<String, Long> lineSamples = new HashMap<>();
+  private long samples = 0;
+
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  Sampler(FunctionNames names, int hz) {
+    this.names = names;
+    this.periodNanos = 1_000_000_000L / hz;
+    thread = new Thread(this::loop, "jlox-sampler");
+    thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Probes every statement of a resolved program for the interpreter
+   * this sampler is installed on. Returns the statements to run in its
+   * place.
+   * */
+  List<Stmt> instrument(List<Stmt> statements, Interpreter interpreter) {
+    Probes probes = new Probes(statements, interpreter,
+        stmt -> line(stmt.line));
+    probes.install(line -> true);
+    return probes.statements;
+  }
+
+  void push(Stmt.Function function) {
+    int frame = top + 1;
+    if (frame < CAPACITY) {
+      functions[frame] = function;
+      lines[frame] = function.line;
+    }
+    top = frame;
+    depth = frame;
+  }
+
+  void pop() {
+    top--;
+    depth = top;
+  }
+
+  void line(int line) {
+    if (top < CAPACITY) lines[top] = line;
+  }
+
+  private void loop() {
+    Stmt.Function[] stack = new Stmt.Function[CAPACITY];
+    int[] stackLines = new int[CAPACITY];
+
+    while (running) {
+      LockSupport.parkNanos(periodNanos);
+
+      int frames = Math.min(depth, CAPACITY - 1);
+      System.arraycopy(functions, 1, stack, 1, frames);
+      System.arraycopy(lines, 0, stackLines, 0, frames + 1);
+
+      // Nothing has run yet.
+      if (frames == 0 && stackLines[0] == 0) continue;
+      record(stack, stackLines, frames);
+    }
+  }
+
+  private void record(Stmt.Function[] stack, int[] stackLines, int frames) {
+    samples++;
+
+    Set<String> seen = new HashSet<>();
+    for (int i = 0; i <= frames; i++) {
+      String name = name(stack, i);
+      if (seen.add(name)) {
+        functionSamples.computeIfAbsent(name, key -> new long[2])[1]++;
+      }
+    }
+
+    String top = name(stack, frames);
+    functionSamples.get(top)[0]++;
+    lineSamples.merge(top + ":" + stackLines[frames], 1L, Long::sum);
+  }
+
+  private String name(Stmt.Function[] stack, int frame) {
+    if (frame == 0 || stack[frame] == null) return Profiler.SCRIPT;
+    return names.of(stack[frame]);
+  }
+
+  /**
+   * Stops sampling. The counts are safe to read once this returns.
+   * */
+  void stop() throws InterruptedException {
+    running = false;
+    thread.join();
+  }
+
+  private void writeReport(Writer writer) {
+    PrintWriter out = new PrintWriter(writer);
+    out.printf("%d samples at %d Hz%n%n", samples,
+        1_000_000_000L / periodNanos);
+
+    List<Map.Entry<String, long[]>> hot =
+        new ArrayList<>(functionSamples.entrySet());
+    hot.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+
+    out.printf("%10s %7s %10s %7s  %s%n",
+        "self", "self%", "total", "total%", "function");
+    for (Map.Entry<String, long[]> entry : hot) {
+      long[] counts = entry.getValue();
+      out.printf("%10d %6.1f%% %10d %6.1f%%  %s%n",
+          counts[0], percent(counts[0]), counts[1], percent(counts[1]),
+          entry.getKey());
+    }
+
+    List<Map.Entry<String, Long>> lines =
+        new ArrayList<>(lineSamples.entrySet());
+    lines.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+    out.println();
+    out.printf("%10s %7s  %s%n", "samples", "%", "function:line");
+    for (Map.Entry<String, Long> entry : lines) {
+      out.printf("%10d %6.1f%%  %s%n",
+          entry.getValue(), percent(entry.getValue()), entry.getKey());
+    }
+    out.flush();
+  }
+
+  private double percent(long count) {
+    return samples == 0 ? 0 : 100.0 * count / samples;
+  }
+
+  /**
+   * Stops sampling and writes the report.
+   *
+   * @throws IOException If the file can't be written.
+   * */
+  void write(Path path) throws IOException, InterruptedException {
+    stop();
+    try (Writer report = Files.newBufferedWriter(path)) {
+      writeReport(report);
+    }
+  }
+}
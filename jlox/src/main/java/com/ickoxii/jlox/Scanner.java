@@ -11,6 +11,7 @@ import com.ickoxii.jlox.enums.TokenType;
 
 class Scanner {
   private final String source;
+  private final ErrorReporter reporter;
   private final List<Token> tokens = new ArrayList<>();
   private int start = 0;
   private int current = 0;
@@ -41,8 +42,9 @@ class Scanner {
   /**
    * Takes in raw source code as a simple string.
    */
-  Scanner(String source) {
+  Scanner(String source, ErrorReporter reporter) {
     this.source = source;
+    this.reporter = reporter;
   }
 
   /**
@@ -146,7 +148,7 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          reporter.error(line, "Unexpected character.");
         }
         break;
     }
@@ -279,7 +281,7 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated String.");
+      reporter.error(line, "Unterminated String.");
       return;
     }
 
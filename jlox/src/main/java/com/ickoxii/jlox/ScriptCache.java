@@ -0,0 +1,136 @@
+package com.ickoxii.jlox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes compiled scripts ({@code .loxc} files).
+ *
+ * A compiled script is a program that has already been scanned,
+ * parsed and resolved, stored as a {@link CompactAst}. The header
+ * records the SHA-256 hash of the source it came from, so running
+ * {@code foo.lox} can pick up {@code foo.loxc} only while it still
+ * matches the source on disk.
+ *
+ * Layout:
+ *
+ *   int    magic ("LOXC")
+ *   int    format version
+ *   int    hash length, followed by the hash bytes
+ *   ...    the CompactAst image
+ * */
+final class ScriptCache {
+  static final String EXTENSION = ".loxc";
+
+  private static final int MAGIC = 0x4c4f5843;
+  private static final int VERSION = 2;
+
+  private ScriptCache() {}
+
+  /**
+   * Where the compiled form of a script lives: next to the source,
+   * with the {@code .lox} extension swapped for {@code .loxc}.
+   * */
+  static Path pathFor(Path source) {
+    String name = source.getFileName().toString();
+    if (name.endsWith(".lox")) {
+      name = name.substring(0, name.length() - ".lox".length());
+    }
+    return source.resolveSibling(name + EXTENSION);
+  }
+
+  static byte[] hash(byte[] source) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(source);
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to provide SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static void write(Path path, byte[] hash, CompactAst ast)
+      throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(hash.length);
+      out.write(hash);
+      ast.write(out);
+    }
+  }
+
+  /**
+   * Loads the program in a compiled script regardless of which source
+   * it came from.
+   *
+   * @throws IOException If the file is missing or not a compiled script.
+   * */
+  static List<Stmt> read(Path path) throws IOException {
+    try (DataInputStream in = open(path)) {
+      readHash(in);
+      return decode(in, Files.size(path));
+    }
+  }
+
+  /**
+   * Loads the program in a compiled script only if it was built from
+   * source with the given hash. Returns null if there is no compiled
+   * form, it is stale, it was written by a different format version, or
+   * it is damaged.
+   * */
+  static List<Stmt> readIfFresh(Path path, byte[] hash) {
+    if (!Files.isRegularFile(path)) return null;
+
+    try (DataInputStream in = open(path)) {
+      if (!Arrays.equals(readHash(in), hash)) return null;
+      return decode(in, Files.size(path));
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads and decodes the program. Past the checks in
+   * {@link CompactAst#read}, a damaged file can still put a node where
+   * a different kind belongs, which only shows up while decoding.
+   * */
+  private static List<Stmt> decode(DataInputStream in, long limit)
+      throws IOException {
+    CompactAst ast = CompactAst.read(in, limit);
+    try {
+      return ast.statements();
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt compiled script.", e);
+    }
+  }
+
+  private static DataInputStream open(Path path) throws IOException {
+    return new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)));
+  }
+
+  private static byte[] readHash(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not a compiled Lox script.");
+    }
+
+    int length = in.readInt();
+    if (length < 0 || length > 64) {
+      throw new IOException("Corrupt compiled script header.");
+    }
+
+    byte[] hash = new byte[length];
+    in.readFully(hash);
+    return hash;
+  }
+}
@@ -0,0 +1,123 @@
+package com.ickoxii.jlox;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The variables of an {@link Environment} or the fields of a
+ * {@link LoxInstance}, safe to read and write from several tasks at
+ * once.
+ *
+ * A ConcurrentHashMap underneath, so lookups take no lock and a
+ * variable being defined on one thread can't break a lookup on
+ * another. ConcurrentHashMap can't hold null, so nil is stored as a
+ * sentinel and turned back into null on the way out.
+ * */
+final class SharedMap extends AbstractMap<String, Object> {
+  private static final Object NIL = new Object();
+
+  /**
+   * What {@link #lookup} returns for a key that isn't there.
+   * */
+  static final Object MISSING = new Object();
+
+  private final ConcurrentHashMap<String, Object> map =
+      new ConcurrentHashMap<>();
+
+  private static Object wrap(Object value) {
+    return value == null ? NIL : value;
+  }
+
+  private static Object unwrap(Object value) {
+    return value == NIL ? null : value;
+  }
+
+  /**
+   * Like {@link #get}, but tells a missing key apart from nil in one
+   * lookup instead of two.
+   * */
+  Object lookup(String key) {
+    Object value = map.get(key);
+    return value == null ? MISSING : unwrap(value);
+  }
+
+  /**
+   * Sets the value of a key that is already there. Returns false, and
+   * changes nothing, if it isn't.
+   * */
+  boolean assign(String key, Object value) {
+    return map.replace(key, wrap(value)) != null;
+  }
+
+  @Override
+  public Object get(Object key) {
+    return unwrap(map.get(key));
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    return unwrap(map.put(key, wrap(value)));
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return unwrap(map.remove(key));
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+        Iterator<Map.Entry<String, Object>> entries = map.entrySet().iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Map.Entry<String, Object> next() {
+            Map.Entry<String, Object> entry = entries.next();
+            return new SimpleEntry<>(entry.getKey(), unwrap(entry.getValue())) {
+              @Override
+              public Object setValue(Object value) {
+                map.put(getKey(), wrap(value));
+                return super.setValue(value);
+              }
+            };
+          }
+
+          @Override
+          public void remove() {
+            entries.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return map.size();
+      }
+    };
+  }
+}
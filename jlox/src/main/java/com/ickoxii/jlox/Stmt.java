@@ -72,6 +72,11 @@ abstract class Stmt {
      * */
     R visitWhileStmt(While stmt);
   }
+
+  /**
+   * Not part of the syntax. Filled in after the node is built.
+   * */
+  int line = 0;
   static class Block extends Stmt {
     /**
      * Constructs a new Block instance.
@@ -0,0 +1,262 @@
+package com.ickoxii.jlox;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs many Lox programs in one JVM, sharing a fixed number of slots
+ * fairly between them.
+ *
+ * Every submitted program is a {@link Tenant} with its own thread and
+ * its own {@link LoxContext}, but only as many tenants as there are
+ * slots run at once. The others wait in a FIFO queue. A running tenant
+ * checks its time slice at the interpreter's safepoints (every
+ * {@link Interpreter#CLOCK_INTERVAL} loop iterations and calls) and,
+ * once the slice is used up and someone is waiting, hands its slot to
+ * the tenant at the head of the queue and goes to the back. A long
+ * loop therefore can't keep the others from running.
+ *
+ * A tenant's priority scales its slice: priority 10 runs twice as long
+ * per turn as the default of 5, priority 1 a fifth as long.
+ *
+ * A tenant that blocks (in {@code join}, {@code send}, {@code receive},
+ * {@code select}, the parallel natives, or waiting for its tasks at the
+ * end) gives up its slot until the wait is over, then queues for one
+ * again. Tasks and parallel workers it starts are tenants of their own
+ * with the same name and priority, so they queue for slots too and
+ * spawning can't get a program more than its share.
+ *
+ * Tenants run on virtual threads when the JVM has them (Java 21 and
+ * later), so a waiting tenant costs no OS thread. On older JVMs each
+ * tenant gets a platform thread, which still works but keeps an OS
+ * thread parked per waiting tenant.
+ * */
+public final class TenantScheduler {
+  public static final int MIN_PRIORITY = 1;
+  public static final int NORM_PRIORITY = 5;
+  public static final int MAX_PRIORITY = 10;
+
+  private final long sliceNanos;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Deque<Tenant> ready = new ArrayDeque<>();
+  private int freeSlots;
+
+  /**
+   * @param slots How many tenants may run at once, usually the number
+   *              of cores to give to Lox.
+   * @param slice How long a tenant of normal priority runs before it
+   *              lets a waiting tenant have its slot.
+   * */
+  public TenantScheduler(int slots, Duration slice) {
+    if (slots < 1) throw new IllegalArgumentException("Need at least one slot.");
+    if (slice.isNegative() || slice.isZero()) {
+      throw new IllegalArgumentException("Slice must be positive.");
+    }
+    this.freeSlots = slots;
+    this.sliceNanos = slice.toNanos();
+  }
+
+  /**
+   * Starts running a script in a context of its own. The context must
+   * not be used by anything else until the tenant is done.
+   * */
+  public Tenant submit(String name, int priority, CompiledScript script,
+                       LoxContext context) {
+    if (priority < MIN_PRIORITY || priority > MAX_PRIORITY) {
+      throw new IllegalArgumentException("Priority must be between "
+          + MIN_PRIORITY + " and " + MAX_PRIORITY + ".");
+    }
+
+    Tenant tenant = new Tenant(name, priority, context);
+    Thread thread = LoxThreads.FACTORY.newThread(() -> tenant.run(script));
+    thread.setName("jlox-tenant-" + name);
+    thread.start();
+    return tenant;
+  }
+
+  /**
+   * One submitted program and how it has been scheduled so far. The
+   * counters are updated by the tenant's own thread and may lag a
+   * little when read from another.
+   * */
+  public final class Tenant {
+    private final String name;
+    private final int priority;
+    private final LoxContext context;
+    private final Condition turn = lock.newCondition();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // Guarded by lock.
+    private boolean granted = false;
+
+    private volatile long slices = 0;
+    private volatile long runNanos = 0;
+    private volatile long waitNanos = 0;
+    private long sliceStart;
+    private LoxException failure;
+
+    private Tenant(String name, int priority, LoxContext context) {
+      this.name = name;
+      this.priority = priority;
+      this.context = context;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getPriority() {
+      return priority;
+    }
+
+    /**
+     * How many turns the tenant has had in a slot.
+     * */
+    public long getSlices() {
+      return slices;
+    }
+
+    /**
+     * Time spent holding a slot.
+     * */
+    public long getRunNanos() {
+      return runNanos;
+    }
+
+    /**
+     * Time spent queued for a slot.
+     * */
+    public long getWaitNanos() {
+      return waitNanos;
+    }
+
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    /**
+     * Waits for the script to finish.
+     *
+     * @throws LoxException If the script failed.
+     * */
+    public void join() throws LoxException, InterruptedException {
+      done.await();
+      if (failure != null) throw failure;
+    }
+
+    private void run(CompiledScript script) {
+      Interpreter interpreter = context.interpreter;
+      interpreter.tenant = this;
+      acquire();
+      try {
+        script.execute(context);
+      } catch (LoxException error) {
+        failure = error;
+      } finally {
+        release();
+        interpreter.tenant = null;
+        done.countDown();
+      }
+    }
+
+    /**
+     * A tenant for a task or parallel worker started by this one, to
+     * hold a slot while it runs. See {@link Interpreter#acquireSlot}.
+     * */
+    Tenant fork() {
+      return new Tenant(name, priority, null);
+    }
+
+    /**
+     * Called at safepoints on the tenant's own thread.
+     * */
+    void checkSlice() {
+      long now = System.nanoTime();
+      if (now - sliceStart < sliceNanos * priority / NORM_PRIORITY) return;
+
+      lock.lock();
+      try {
+        if (ready.isEmpty()) {
+          // Nobody is waiting, so carry on with a fresh slice.
+          runNanos += now - sliceStart;
+          sliceStart = now;
+          slices++;
+          return;
+        }
+        handOff(now);
+        ready.addLast(this);
+        await(now);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Waits for a slot. Every call must be followed by {@link #release}
+     * on the same thread.
+     * */
+    void acquire() {
+      long now = System.nanoTime();
+      lock.lock();
+      try {
+        if (freeSlots > 0 && ready.isEmpty()) {
+          freeSlots--;
+          start(now);
+          return;
+        }
+        ready.addLast(this);
+        await(now);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void release() {
+      long now = System.nanoTime();
+      lock.lock();
+      try {
+        handOff(now);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Gives this tenant's slot to the next in line, or frees it.
+     * Called with the lock held.
+     * */
+    private void handOff(long now) {
+      runNanos += now - sliceStart;
+      Tenant next = ready.pollFirst();
+      if (next == null) {
+        freeSlots++;
+      } else {
+        next.granted = true;
+        next.turn.signal();
+      }
+    }
+
+    /**
+     * Waits in the queue until handed a slot. Called with the lock
+     * held and this tenant queued. Interrupts are ignored, since a
+     * tenant that left the queue would upset the slot count; use
+     * {@link LoxContext#cancel()} to stop one.
+     * */
+    private void await(long queued) {
+      while (!granted) turn.awaitUninterruptibly();
+      granted = false;
+      long now = System.nanoTime();
+      waitNanos += now - queued;
+      start(now);
+    }
+
+    private void start(long now) {
+      sliceStart = now;
+      slices++;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.ickoxii.jlox.script;
+
+import java.util.AbstractMap;
+import java.util.Set;
+
+import javax.script.Bindings;
+
+import com.ickoxii.jlox.LoxContext;
+
+/**
+ * Bindings that are the Lox global scope itself rather than a copy of
+ * it. Putting a binding defines a global, and globals a script defines
+ * show up as bindings.
+ * */
+class LoxBindings extends AbstractMap<String, Object> implements Bindings {
+  final LoxContext context;
+
+  LoxBindings(LoxContext context) {
+    this.context = context;
+  }
+
+  @Override
+  public Object put(String name, Object value) {
+    Object previous = context.get(name);
+    context.set(name, value);
+    return previous;
+  }
+
+  @Override
+  public Object get(Object key) {
+    return context.get((String)key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return context.globals().containsKey(key);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return context.remove((String)key);
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return context.globals().entrySet();
+  }
+}
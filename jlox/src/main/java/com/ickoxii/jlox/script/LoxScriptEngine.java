@@ -0,0 +1,244 @@
+package com.ickoxii.jlox.script;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+import com.ickoxii.jlox.LoxContext;
+import com.ickoxii.jlox.LoxEngine;
+import com.ickoxii.jlox.LoxException;
+
+/**
+ * A {@code javax.script} engine for Lox.
+ *
+ * The engine scope of each {@link ScriptContext} is backed by a
+ * {@link LoxContext}, so bindings are the script's global variables.
+ * If the caller swaps in some other {@link Bindings}, they are copied
+ * into a fresh global scope before the script runs, and the globals
+ * the script defined are copied back afterwards. Native functions
+ * such as {@code clock} are not copied back unless the caller's
+ * bindings already had them.
+ *
+ * Names found in neither scope are looked up in the global scope
+ * ({@link ScriptContext#GLOBAL_SCOPE}), which scripts can read but
+ * not assign to.
+ *
+ * {@link #compile} scans, parses and resolves once; the result can be
+ * evaluated repeatedly. {@link #invokeFunction} calls a Lox function
+ * that an earlier script defined, without running any source again.
+ *
+ * Scripts evaluate to null, since Lox programs are statements.
+ * */
+public class LoxScriptEngine extends AbstractScriptEngine
+    implements Compilable, Invocable {
+  private final LoxScriptEngineFactory factory;
+  private final LoxEngine engine = new LoxEngine();
+
+  // The globals every fresh Lox scope starts with.
+  private final Set<String> natives =
+      Set.copyOf(engine.createContext().globals().keySet());
+
+  LoxScriptEngine(LoxScriptEngineFactory factory) {
+    this.factory = factory;
+    context.setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
+  }
+
+  @Override
+  public Bindings createBindings() {
+    return new LoxBindings(engine.createContext());
+  }
+
+  @Override
+  public ScriptEngineFactory getFactory() {
+    return factory;
+  }
+
+  @Override
+  public Object eval(String script, ScriptContext context)
+      throws ScriptException {
+    return compile(script).eval(context);
+  }
+
+  @Override
+  public Object eval(Reader reader, ScriptContext context)
+      throws ScriptException {
+    return eval(read(reader), context);
+  }
+
+  @Override
+  public CompiledScript compile(String script) throws ScriptException {
+    try {
+      return new Compiled(engine.compile(script));
+    } catch (LoxException e) {
+      throw scriptException(e);
+    }
+  }
+
+  @Override
+  public CompiledScript compile(Reader reader) throws ScriptException {
+    return compile(read(reader));
+  }
+
+  @Override
+  public Object invokeFunction(String name, Object... args)
+      throws ScriptException, NoSuchMethodException {
+    LoxContext lox = globalsOf(context);
+    if (!lox.isCallable(name)) {
+      throw new NoSuchMethodException(name);
+    }
+
+    try {
+      prepare(lox, context);
+      return lox.call(name, args);
+    } catch (LoxException e) {
+      throw scriptException(e);
+    }
+  }
+
+  @Override
+  public Object invokeMethod(Object thiz, String name, Object... args)
+      throws ScriptException, NoSuchMethodException {
+    LoxContext lox = globalsOf(context);
+    if (!lox.hasMethod(thiz, name)) {
+      throw new NoSuchMethodException(name);
+    }
+
+    try {
+      prepare(lox, context);
+      return lox.callMethod(thiz, name, args);
+    } catch (LoxException e) {
+      throw scriptException(e);
+    }
+  }
+
+  @Override
+  public <T> T getInterface(Class<T> type) {
+    return proxy(type, null);
+  }
+
+  @Override
+  public <T> T getInterface(Object thiz, Class<T> type) {
+    if (thiz == null) throw new IllegalArgumentException("thiz is null");
+    return proxy(type, thiz);
+  }
+
+  /**
+   * Implements a Java interface with Lox functions (or methods of
+   * {@code thiz}) of the same names.
+   * */
+  private <T> T proxy(Class<T> type, Object thiz) {
+    if (type == null || !type.isInterface()) {
+      throw new IllegalArgumentException("Not an interface: " + type);
+    }
+
+    Object proxy = Proxy.newProxyInstance(type.getClassLoader(),
+        new Class<?>[] { type }, (self, method, args) -> {
+          Object[] arguments = args == null ? new Object[0] : args;
+          if (thiz == null) {
+            return invokeFunction(method.getName(), arguments);
+          }
+          return invokeMethod(thiz, method.getName(), arguments);
+        });
+    return type.cast(proxy);
+  }
+
+  /**
+   * The Lox global scope for a script context, creating one if the
+   * engine scope is not already backed by Lox globals.
+   * */
+  private LoxContext globalsOf(ScriptContext context) {
+    Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+    if (bindings instanceof LoxBindings) {
+      return ((LoxBindings)bindings).context;
+    }
+
+    LoxContext lox = engine.createContext();
+    if (bindings != null) {
+      for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+        lox.set(binding.getKey(), binding.getValue());
+      }
+    }
+    return lox;
+  }
+
+  private static void prepare(LoxContext lox, ScriptContext context) {
+    lox.setOutput(context.getWriter());
+    lox.setOuterScope(context.getBindings(ScriptContext.GLOBAL_SCOPE));
+  }
+
+  /**
+   * Copies the globals a script defined back into bindings that are
+   * not Lox globals themselves.
+   * */
+  private void copyBack(LoxContext lox, Bindings bindings) {
+    for (Map.Entry<String, Object> global : lox.globals().entrySet()) {
+      String name = global.getKey();
+      if (!natives.contains(name) || bindings.containsKey(name)) {
+        bindings.put(name, global.getValue());
+      }
+    }
+  }
+
+  private static String read(Reader reader) throws ScriptException {
+    StringWriter source = new StringWriter();
+    try {
+      reader.transferTo(source);
+    } catch (IOException e) {
+      throw new ScriptException(e);
+    }
+    return source.toString();
+  }
+
+  private static ScriptException scriptException(LoxException e) {
+    ScriptException exception = new ScriptException(e.getMessage());
+    exception.initCause(e);
+    return exception;
+  }
+
+  /**
+   * A script that has been scanned, parsed and resolved once.
+   * */
+  private class Compiled extends CompiledScript {
+    private final com.ickoxii.jlox.CompiledScript script;
+
+    Compiled(com.ickoxii.jlox.CompiledScript script) {
+      this.script = script;
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+      LoxContext lox = globalsOf(context);
+      prepare(lox, context);
+
+      try {
+        script.execute(lox);
+      } catch (LoxException e) {
+        throw scriptException(e);
+      } finally {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (bindings != null && !(bindings instanceof LoxBindings)) {
+          copyBack(lox, bindings);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+      return LoxScriptEngine.this;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.ickoxii.jlox.script;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Registers jlox with {@code javax.script}, so
+ * {@code new ScriptEngineManager().getEngineByName("lox")} finds it.
+ * */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+  private static final List<String> NAMES = List.of("lox", "jlox");
+  private static final List<String> EXTENSIONS = List.of("lox");
+  private static final List<String> MIME_TYPES =
+      List.of("application/x-lox", "text/x-lox");
+
+  @Override
+  public String getEngineName() {
+    return "jlox";
+  }
+
+  @Override
+  public String getEngineVersion() {
+    return "1.0.0";
+  }
+
+  @Override
+  public List<String> getExtensions() {
+    return EXTENSIONS;
+  }
+
+  @Override
+  public List<String> getMimeTypes() {
+    return MIME_TYPES;
+  }
+
+  @Override
+  public List<String> getNames() {
+    return NAMES;
+  }
+
+  @Override
+  public String getLanguageName() {
+    return "Lox";
+  }
+
+  @Override
+  public String getLanguageVersion() {
+    return "1.0";
+  }
+
+  /**
+   * A context must only be used by one thread at a time, so jlox
+   * makes no threading promise (null) to {@code javax.script}.
+   * */
+  @Override
+  public Object getParameter(String key) {
+    switch (key) {
+      case ScriptEngine.ENGINE: return getEngineName();
+      case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+      case ScriptEngine.LANGUAGE: return getLanguageName();
+      case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+      case ScriptEngine.NAME: return NAMES.get(0);
+      default: return null;
+    }
+  }
+
+  @Override
+  public String getMethodCallSyntax(String obj, String m, String... args) {
+    return obj + "." + m + "(" + String.join(", ", args) + ")";
+  }
+
+  /**
+   * Lox strings have no escapes, so there is no way to write a
+   * quotation mark inside one.
+   *
+   * @throws IllegalArgumentException If {@code toDisplay} contains a
+   *                                  {@code "}.
+   * */
+  @Override
+  public String getOutputStatement(String toDisplay) {
+    if (toDisplay.indexOf('"') >= 0) {
+      throw new IllegalArgumentException(
+          "Lox strings can't contain a quotation mark.");
+    }
+    return "print \"" + toDisplay + "\";";
+  }
+
+  @Override
+  public String getProgram(String... statements) {
+    StringBuilder program = new StringBuilder();
+    for (String statement : statements) {
+      program.append(statement);
+      if (!statement.trim().endsWith(";") && !statement.trim().endsWith("}")) {
+        program.append(';');
+      }
+      program.append('\n');
+    }
+    return program.toString();
+  }
+
+  @Override
+  public ScriptEngine getScriptEngine() {
+    return new LoxScriptEngine(this);
+  }
+}
@@ -29,6 +29,7 @@ public class GenerateAst {
 
     // AST for expressions
     defineAst(outputDir, "Expr", Arrays.asList(
+        "int depth = -1"), Arrays.asList(
         "Assign   : Token name, Expr value",
         "Binary   : Expr left, Token operator, Expr right",
         "Call     : Expr callee, Token paren, List<Expr> arguments",
@@ -44,6 +45,7 @@ public class GenerateAst {
 
     // AST for statements and state
     defineAst(outputDir, "Stmt", Arrays.asList(
+        "int line = 0"), Arrays.asList(
         "Block      : List<Stmt> statements",
         "Class      : Token name, Expr.Variable superclass," +
                     " List<Stmt.Function> methods",
@@ -62,12 +64,15 @@ public class GenerateAst {
    * @param outputDir The directory where the generated Java files will be
    *                  written.
    * @param baseName  The name of the abstract base class.
+   * @param baseFields Mutable fields shared by every node, in the format
+   *                  "fieldType fieldName = initialValue".
    * @param types     A list of type definitions in the format "ClassName :
    *                  fieldType fieldName, ...".
    * @throws IOException If an error occurs while writing the file.
    * */
   private static void defineAst(
-      String outputDir, String baseName, List<String> types)
+      String outputDir, String baseName, List<String> baseFields,
+      List<String> types)
       throws IOException {
     String path = outputDir + "/" + baseName + ".java";
     PrintWriter writer = new PrintWriter(path, "UTF-8");
@@ -85,6 +90,9 @@ public class GenerateAst {
     // Define the visitor interface
     defineVisitor(writer, baseName, types);
 
+    // Define the fields shared by every node
+    defineBaseFields(writer, baseName, baseFields);
+
     // Define the AST sublasses
     for (String type : types) {
       String className = type.split(":")[0].trim();
@@ -133,6 +141,26 @@ public class GenerateAst {
     writer.println("  }");
   }
 
+  /**
+   * Defines the mutable fields carried by every node of the base class.
+   * These are filled in by later passes (i.e. the Resolver) rather than
+   * by the Parser, so they are not constructor parameters.
+   *
+   * @param writer     The writer to output the generated code.
+   * @param baseName   The name of the abstract base class.
+   * @param baseFields A list of field definitions.
+   * */
+  private static void defineBaseFields(
+      PrintWriter writer, String baseName, List<String> baseFields) {
+    for (String field : baseFields) {
+      writer.println();
+      writer.println("  /**");
+      writer.println("   * Not part of the syntax. Filled in after the node is built.");
+      writer.println("   * */");
+      writer.println("  " + field + ";");
+    }
+  }
+
   /**
    * Defines a concrete subclass of the abstract base class.
    *
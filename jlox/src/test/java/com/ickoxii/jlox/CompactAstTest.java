@@ -0,0 +1,94 @@
+package com.ickoxii.jlox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CompactAstTest extends TestCase {
+  // Uses every kind of node at least once.
+  private static final String PROGRAM = String.join("\n",
+      "class Base {",
+      "  init(n) { this.n = n; }",
+      "  describe() { return this.n; }",
+      "}",
+      "class Derived < Base {",
+      "  describe() { return super.describe() * 10; }",
+      "}",
+      "fun count(limit) {",
+      "  var total = 0;",
+      "  var i = 0;",
+      "  while (i < limit) {",
+      "    if (i == 2 or !(i > 3) and true) total = total + i;",
+      "    else total = total - (-1);",
+      "    i = i + 1;",
+      "  }",
+      "  return total;",
+      "}",
+      "var d = Derived(nil);",
+      "d.n = count(6);",
+      "print d.describe();",
+      "{ var shadow = \"done\"; print shadow; }");
+
+  public CompactAstTest(String testName) {
+    super(testName);
+  }
+
+  private static List<Stmt> compile(String source) {
+    return LoxEngine.compile(source, (line, where, message) ->
+        fail("[line " + line + "] Error" + where + ": " + message));
+  }
+
+  private static byte[] bytes(CompactAst ast) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      ast.write(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static CompactAst read(byte[] bytes) throws IOException {
+    return CompactAst.read(
+        new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+  }
+
+  private static String run(List<Stmt> statements) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new Interpreter(new PrintStream(out, true)).interpret(statements);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  public void testCoversEveryNodeKind() {
+    CompactAst ast = CompactAst.encode(compile(PROGRAM));
+
+    boolean[] seen = new boolean[CompactAst.WHILE + 1];
+    for (int node = 0; node < ast.nodeCount(); node++) {
+      seen[ast.kind(node)] = true;
+    }
+    for (int kind = 0; kind < seen.length; kind++) {
+      assertTrue("kind " + kind + " missing", seen[kind]);
+    }
+  }
+
+  public void testRoundTripIsLossless() throws IOException {
+    byte[] image = bytes(CompactAst.encode(compile(PROGRAM)));
+    List<Stmt> decoded = read(image).statements();
+
+    assertTrue(Arrays.equals(image, bytes(CompactAst.encode(decoded))));
+  }
+
+  public void testDecodedProgramRunsTheSame() throws IOException {
+    List<Stmt> original = compile(PROGRAM);
+    List<Stmt> decoded = read(bytes(CompactAst.encode(original))).statements();
+
+    assertEquals("80\ndone\n", run(original));
+    assertEquals(run(original), run(decoded));
+  }
+}
@@ -0,0 +1,48 @@
+package com.ickoxii.jlox;
+
+import junit.framework.TestCase;
+
+public class FreezeTest extends TestCase {
+  private static final String POINT =
+      "class Point { init(x) { this.x = x; } }\n";
+
+  public FreezeTest(String testName) {
+    super(testName);
+  }
+
+  public void testFreezesReachableObjects() throws LoxException {
+    assertEquals("true\ntrue\ntrue\n", TestScripts.run(POINT + String.join("\n",
+        "var l = list();",
+        "push(l, Point(1));",
+        "var p = Point(l);",
+        "freeze(p);",
+        "print isFrozen(p);",
+        "print isFrozen(l);",
+        "print isFrozen(get(l, 0));")));
+  }
+
+  public void testFrozenObjectsCantChange() {
+    assertEquals("Can't set 'x' on a frozen instance.",
+        TestScripts.error(POINT + "var p = freeze(Point(1));\np.x = 2;"));
+    assertEquals("Can't change a frozen list.",
+        TestScripts.error("var l = freeze(list());\npush(l, 1);"));
+  }
+
+  public void testFrozenClassFreezesOnlyNewInstances() throws LoxException {
+    assertEquals("true\nfalse\ntrue\ntrue\ntrue\n", TestScripts.run(POINT
+        + String.join("\n",
+            "class Point3 < Point {}",
+            "var before = Point(1);",
+            "freeze(Point);",
+            "print freezesInstances(Point3);",
+            "print isFrozen(before);",
+            "print isFrozen(Point(2));",
+            "print isFrozen(Point3(3));",
+            "print isFrozen(Point);")));
+  }
+
+  public void testUnfrozenClass() throws LoxException {
+    assertEquals("false\ntrue\n", TestScripts.run(POINT
+        + "print freezesInstances(Point);\nprint isFrozen(Point);"));
+  }
+}
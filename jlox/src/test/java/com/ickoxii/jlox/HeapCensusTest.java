@@ -0,0 +1,27 @@
+package com.ickoxii.jlox;
+
+import junit.framework.TestCase;
+
+public class HeapCensusTest extends TestCase {
+  public HeapCensusTest(String testName) {
+    super(testName);
+  }
+
+  public void testSeesCallerScopesAndLists() throws LoxException {
+    String stats = TestScripts.run(String.join("\n",
+        "class Point { init(x) { this.x = x; } }",
+        "fun inner() { return heapStats(); }",
+        "fun outer() {",
+        "  var p = Point(1);",
+        "  var l = list();",
+        "  push(l, 1);",
+        "  push(l, \"a\");",
+        "  return inner();",
+        "}",
+        "var s = outer();",
+        "print s.classes.Point.bytes > 0;",
+        "print s.lists.bytes > 0;"));
+
+    assertEquals("true\ntrue\n", stats);
+  }
+}
@@ -0,0 +1,159 @@
+package com.ickoxii.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class HeapImageTest extends TestCase {
+  private static final String PRELUDE = String.join("\n",
+      "class Shape { init(name) { this.name = name; } describe() { return this.name; } }",
+      "class Square < Shape {",
+      "  init(side) { super.init(\"square\"); this.side = side; }",
+      "  area() { return this.side * this.side; }",
+      "}",
+      "fun makeCounter() {",
+      "  var count = 0;",
+      "  fun next() { count = count + 1; return count; }",
+      "  return next;",
+      "}",
+      "var counter = makeCounter();",
+      "counter();",
+      "var square = Square(3);",
+      "var pinned = freeze(Square(4));",
+      "class Frozen {}",
+      "freeze(Frozen);",
+      "var now = clock;",
+      "var greeting = \"hi\";",
+      "var flag = true;",
+      "var nothing = nil;");
+
+  private Path image;
+
+  public HeapImageTest(String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    image = Files.createTempFile("jlox", ".img");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(image);
+  }
+
+  private static List<Stmt> compile(String source) {
+    return LoxEngine.compile(source, (line, where, message) ->
+        fail("[line " + line + "] Error" + where + ": " + message));
+  }
+
+  private static Interpreter interpreter(ByteArrayOutputStream out) {
+    return new Interpreter(new PrintStream(out, true));
+  }
+
+  public void testLoadedImageRunsLikeThePrelude() throws IOException {
+    List<Stmt> prelude = compile(PRELUDE);
+    Interpreter saved = interpreter(new ByteArrayOutputStream());
+    saved.interpret(prelude);
+    HeapImage.write(image, prelude, saved);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Interpreter loaded = interpreter(out);
+    HeapImage.load(image, loaded);
+    loaded.interpret(compile(String.join("\n",
+        "print counter();",
+        "print square.area();",
+        "print square.describe();",
+        "print Square(5).area();",
+        "print isFrozen(pinned);",
+        "print isFrozen(square);",
+        "print freezesInstances(Frozen);",
+        "print now() > 0;",
+        "print greeting;",
+        "print flag;",
+        "print nothing;")));
+
+    assertEquals("2\n9\nsquare\n25\ntrue\nfalse\ntrue\ntrue\nhi\ntrue\nnil\n",
+        out.toString(StandardCharsets.UTF_8));
+  }
+
+  public void testListsKeepTheirElementsAndRepresentation()
+      throws IOException {
+    List<Stmt> prelude = compile(String.join("\n",
+        "class Shape {}",
+        "var numbers = list();",
+        "for (var i = 1; i <= 3; i = i + 1) push(numbers, i);",
+        "var boxed = list();",
+        "push(boxed, 4); push(boxed, \"x\"); pop(boxed);",
+        "var nested = list();",
+        "push(nested, numbers); push(nested, Shape()); push(nested, nil);",
+        "push(nested, nested);",
+        "var pinned = list();",
+        "push(pinned, 1);",
+        "freeze(pinned);"));
+    Interpreter saved = interpreter(new ByteArrayOutputStream());
+    saved.interpret(prelude);
+    HeapImage.write(image, prelude, saved);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Interpreter loaded = interpreter(out);
+    HeapImage.load(image, loaded);
+    loaded.interpret(compile(String.join("\n",
+        "push(numbers, 4);",
+        "print numbers;",
+        "print boxed;",
+        "print get(nested, 0) == numbers;",
+        "print get(nested, 3) == nested;",
+        "print isFrozen(pinned);")));
+
+    assertEquals("[1, 2, 3, 4]\n[4]\ntrue\ntrue\ntrue\n",
+        out.toString(StandardCharsets.UTF_8));
+    assertTrue(((LoxList)loaded.globals.values().get("numbers")).isUnboxed());
+    assertFalse(((LoxList)loaded.globals.values().get("boxed")).isUnboxed());
+  }
+
+  public void testRefusesValuesItCantSave() throws IOException {
+    List<Stmt> prelude = compile("var pipe = list(); push(pipe, channel(1));");
+    Interpreter saved = interpreter(new ByteArrayOutputStream());
+    saved.interpret(prelude);
+    try {
+      HeapImage.write(image, prelude, saved);
+      fail("Expected the channel to be refused.");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().startsWith("Can't save <channel"));
+    }
+  }
+
+  public void testNeedsTheNativesItUses() throws IOException {
+    List<Stmt> prelude = compile("var now = clock;");
+    Interpreter saved = interpreter(new ByteArrayOutputStream());
+    saved.interpret(prelude);
+    HeapImage.write(image, prelude, saved);
+
+    Interpreter loaded = interpreter(new ByteArrayOutputStream());
+    loaded.globals.values().remove("clock");
+    try {
+      HeapImage.load(image, loaded);
+      fail("Expected the missing native to be reported.");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("'clock'"));
+    }
+  }
+
+  public void testRejectsAnythingElse() throws IOException {
+    Files.write(image, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    try {
+      HeapImage.load(image, interpreter(new ByteArrayOutputStream()));
+      fail("Expected the image to be rejected.");
+    } catch (IOException expected) {
+      // Not a heap image.
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.ickoxii.jlox;
+
+import junit.framework.TestCase;
+
+public class LimitsTest extends TestCase {
+  private static final String LOOP = "var i = 0;\nwhile (true) {\n  i = i + 1;\n}";
+
+  public LimitsTest(String testName) {
+    super(testName);
+  }
+
+  public void testStepLimitReportsTheLoopLine() {
+    LoxContext context = TestScripts.context();
+    context.setLimits(1000, 0, null);
+    try {
+      TestScripts.run(context, LOOP);
+      fail("Expected the step limit.");
+    } catch (LoxException e) {
+      assertEquals("Step limit exceeded.\n[line 2]", e.getErrors().get(0));
+    }
+  }
+
+  public void testDepthLimitIsReportedAtTheCall() {
+    LoxContext context = TestScripts.context();
+    context.setLimits(0, 50, null);
+    assertEquals("Call depth limit exceeded.",
+        TestScripts.error(context, "fun f() { f(); }\nf();"));
+  }
+
+  private static String allocationError(String source) {
+    LoxContext context = TestScripts.context();
+    context.setAllocationLimit(100_000);
+    return TestScripts.error(context, source);
+  }
+
+  public void testGrowingAListTripsTheAllocationLimit() {
+    assertEquals("Allocation limit exceeded.", allocationError(String.join("\n",
+        "var l = list();",
+        "var i = 0;",
+        "while (i < 2000000) { push(l, i); i = i + 1; }")));
+  }
+
+  public void testListOfStringsTripsTheAllocationLimit() {
+    assertEquals("Allocation limit exceeded.", allocationError(String.join("\n",
+        "var l = list();",
+        "var i = 0;",
+        "while (i < 2000000) { push(l, \"x\"); i = i + 1; }")));
+  }
+
+  public void testChannelBufferTripsTheAllocationLimit() {
+    assertEquals("Allocation limit exceeded.", allocationError(String.join("\n",
+        "var c = channel(1000000000);",
+        "while (true) trySend(c, 1);")));
+  }
+}
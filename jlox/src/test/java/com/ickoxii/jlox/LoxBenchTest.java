@@ -0,0 +1,35 @@
+package com.ickoxii.jlox;
+
+import junit.framework.TestCase;
+
+public class LoxBenchTest extends TestCase {
+  private static final String NOOP = "fun noop() {}\n";
+
+  public LoxBenchTest(String testName) {
+    super(testName);
+  }
+
+  public void testRejectsBadIterationCounts() {
+    for (String count : new String[] { "0", "-1", "1.5", "\"ten\"", "nil" }) {
+      String error = TestScripts.error(NOOP + "bench(noop, " + count + ");");
+      assertTrue(count + ": " + error, error.startsWith("Iterations must be"));
+    }
+  }
+
+  public void testClockNanosCountsFromStartup() throws LoxException {
+    // Small enough for a double to hold every nanosecond.
+    assertEquals("true\n", TestScripts.run(String.join("\n",
+        "var first = clockNanos();",
+        "var second = clockNanos();",
+        "print 0 <= first and first <= second and second < 9007199254740992;")));
+  }
+
+  public void testReportsStats() throws LoxException {
+    String output = TestScripts.run(NOOP
+        + "var stats = bench(noop, 5);\n"
+        + "print stats.iterations;\n"
+        + "print stats.rounds;\n"
+        + "print stats.min <= stats.median and stats.median <= stats.max;");
+    assertEquals("5\n" + LoxBench.MEASURED_ROUNDS + "\ntrue\n", output);
+  }
+}
@@ -0,0 +1,90 @@
+package com.ickoxii.jlox;
+
+import java.time.Duration;
+
+import junit.framework.TestCase;
+
+public class LoxChannelTest extends TestCase {
+  public LoxChannelTest(String testName) {
+    super(testName);
+  }
+
+  public void testValuesComeOutInOrder() throws LoxException {
+    assertEquals("1\n2\n3\n", TestScripts.run(String.join("\n",
+        "var c = channel(2);",
+        "fun produce() { for (var i = 1; i <= 3; i = i + 1) send(c, i); close(c); }",
+        "spawn(produce);",
+        "var v = receive(c);",
+        "while (v != nil) { print v; v = receive(c); }")));
+  }
+
+  public void testTrySendOnAFullChannel() throws LoxException {
+    assertEquals("true\nfalse\n", TestScripts.run(String.join("\n",
+        "var c = channel(1);",
+        "print trySend(c, 1);",
+        "print trySend(c, 2);")));
+  }
+
+  public void testBufferGrowsUpToTheCapacity() throws LoxException {
+    assertEquals("true\n0\nfalse\n1\n40\n", TestScripts.run(String.join("\n",
+        "var c = channel(40);",
+        "print trySend(c, 0);",
+        "print receive(c);",
+        "for (var i = 1; i <= 40; i = i + 1) trySend(c, i);",
+        "print trySend(c, 41);",
+        "print receive(c);",
+        "var last;",
+        "for (var i = 2; i <= 40; i = i + 1) last = receive(c);",
+        "print last;")));
+  }
+
+  public void testHugeCapacityCostsNothingUpFront() throws LoxException {
+    assertEquals("1\n", TestScripts.run(String.join("\n",
+        "var c = channel(2000000000);",
+        "send(c, 1);",
+        "print receive(c);")));
+  }
+
+  public void testClosedChannelDrainsThenGivesNil() throws LoxException {
+    assertEquals("1\nnil\n", TestScripts.run(String.join("\n",
+        "var c = channel(1);",
+        "send(c, 1);",
+        "close(c);",
+        "print receive(c);",
+        "print receive(c);")));
+  }
+
+  public void testSelectTakesFromAReadyChannel() throws LoxException {
+    assertEquals("true\n7\nnil\n", TestScripts.run(String.join("\n",
+        "var a = channel(1);",
+        "var b = channel(1);",
+        "send(b, 7);",
+        "var l = list();",
+        "push(l, a);",
+        "push(l, b);",
+        "var got = select(l);",
+        "print got.channel == b;",
+        "print got.value;",
+        "close(a);",
+        "close(b);",
+        "print select(l);")));
+  }
+
+  public void testErrors() {
+    assertEquals("Can't send nil on a channel.",
+        TestScripts.error("send(channel(1), nil);"));
+    assertEquals("Send on a closed channel.",
+        TestScripts.error("var c = channel(1); close(c); send(c, 1);"));
+    assertEquals("Channel capacity must be a positive whole number.",
+        TestScripts.error("channel(0);"));
+    assertEquals("Can't select from no channels.",
+        TestScripts.error("select(list());"));
+  }
+
+  public void testWaitingReceiveHitsTheTimeLimit() {
+    LoxContext context = TestScripts.context();
+    context.setLimits(0, 0, Duration.ofMillis(100));
+    assertEquals("Time limit exceeded.",
+        TestScripts.error(context, "receive(channel(1));"));
+  }
+}
@@ -0,0 +1,71 @@
+package com.ickoxii.jlox;
+
+import junit.framework.TestCase;
+
+public class LoxListTest extends TestCase {
+  public LoxListTest(String testName) {
+    super(testName);
+  }
+
+  private static Interpreter interpreter() {
+    return new Interpreter(System.out);
+  }
+
+  public void testPushPopAndGet() throws LoxException {
+    assertEquals("3\n2\n1\n1\n", TestScripts.run(String.join("\n",
+        "var l = list();",
+        "push(l, 1);",
+        "push(l, 2);",
+        "push(l, 3);",
+        "print length(l);",
+        "pop(l);",
+        "print pop(l);",
+        "print length(l);",
+        "print get(l, 0);")));
+  }
+
+  public void testSlice() throws LoxException {
+    assertEquals("[2, 3]\n[]\n[1, 2, 3, 4]\n", TestScripts.run(String.join("\n",
+        "var l = list();",
+        "for (var i = 1; i <= 4; i = i + 1) push(l, i);",
+        "print slice(l, 1, 3);",
+        "print slice(l, 4, 4);",
+        "print slice(l, 0, length(l));")));
+  }
+
+  public void testErrors() {
+    assertEquals("Can't pop from an empty list.", TestScripts.error("pop(list());"));
+    assertEquals("List index out of range.", TestScripts.error("get(list(), 0);"));
+    assertEquals("List index must be a number.",
+        TestScripts.error("get(list(), \"0\");"));
+    assertEquals("Slice start is after its end.", TestScripts.error(
+        "var l = list(); push(l, 1); push(l, 2); slice(l, 2, 1);"));
+    assertEquals("Expected a list.", TestScripts.error("push(1, 1);"));
+  }
+
+  public void testNumbersStayUnboxedUntilSomethingElseArrives() {
+    Interpreter interpreter = interpreter();
+    LoxList list = LoxList.create(interpreter);
+    for (int i = 0; i < 20; i++) list.add(interpreter, (double)i);
+    assertTrue(list.isUnboxed());
+
+    list.add(interpreter, "twenty");
+    assertFalse(list.isUnboxed());
+    assertEquals(21, list.size());
+    for (int i = 0; i < 20; i++) assertEquals((double)i, list.get(i));
+    assertEquals("twenty", list.get(20));
+    assertEquals("twenty", list.pop());
+    assertEquals(19.0, list.pop());
+  }
+
+  public void testSliceKeepsTheStorage() {
+    Interpreter interpreter = interpreter();
+    LoxList numbers = new LoxList(new Object[] {1.0, 2.0, 3.0}, 3);
+    LoxList mixed = new LoxList(new Object[] {1.0, "two", 3.0}, 3);
+
+    assertTrue(numbers.slice(interpreter, 0, 2).isUnboxed());
+    LoxList slice = mixed.slice(interpreter, 1, 3);
+    assertFalse(slice.isUnboxed());
+    assertEquals("[two, 3]", slice.toString());
+  }
+}
@@ -0,0 +1,38 @@
+package com.ickoxii.jlox;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class LoxMetricsTest extends TestCase {
+  private static final String CALLS = "fun f() {} f(); f(); f();";
+
+  public LoxMetricsTest(String testName) {
+    super(testName);
+  }
+
+  public void testSwitchedOnAndOffOverJmx() throws Exception {
+    TestScripts.run("");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(LoxMetrics.NAME);
+    assertTrue(server.isRegistered(name));
+
+    try {
+      server.setAttribute(name, new Attribute("Enabled", true));
+      long before = (Long)server.getAttribute(name, "FunctionCalls");
+      TestScripts.run(CALLS);
+      long during = (Long)server.getAttribute(name, "FunctionCalls");
+      assertTrue(during - before >= 3);
+
+      server.setAttribute(name, new Attribute("Enabled", false));
+      TestScripts.run(CALLS);
+      assertEquals(during, server.getAttribute(name, "FunctionCalls"));
+    } finally {
+      LoxMetrics.enabled = false;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.ickoxii.jlox;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class LoxParallelTest extends TestCase {
+  private static final String NUMBERS = String.join("\n",
+      "var l = list();",
+      "for (var i = 1; i <= 100; i = i + 1) push(l, i);",
+      "");
+
+  public LoxParallelTest(String testName) {
+    super(testName);
+  }
+
+  public void testResultsKeepTheListOrder() throws LoxException {
+    assertEquals("[2, 4, 6]\n[1, 2, 3]\n5050\n", TestScripts.run(NUMBERS
+        + "fun double(x) { return x * 2; }\n"
+        + "fun small(x) { return x < 4; }\n"
+        + "fun add(a, b) { return a + b; }\n"
+        + "print slice(parallelMap(l, double), 0, 3);\n"
+        + "print parallelFilter(l, small);\n"
+        + "print parallelReduce(l, add, 0);"));
+  }
+
+  public void testCancelStopsTheWorkers() throws Exception {
+    LoxContext context = TestScripts.context();
+    CompletableFuture<String> run = CompletableFuture.supplyAsync(() ->
+        TestScripts.error(context, NUMBERS
+            + "fun spin(x) { while (true) {} }\n"
+            + "parallelMap(l, spin);"));
+
+    Thread.sleep(200);
+    context.cancel();
+    assertEquals("Execution cancelled.", run.get(10, TimeUnit.SECONDS));
+  }
+
+  public void testWorkersShareTheStepLimit() {
+    LoxContext context = TestScripts.context();
+    context.setLimits(100_000, 0, null);
+    assertEquals("Step limit exceeded.", TestScripts.error(context, NUMBERS
+        + "fun work(x) { var i = 0; while (i < 5000) i = i + 1; return x; }\n"
+        + "parallelMap(l, work);"));
+  }
+}
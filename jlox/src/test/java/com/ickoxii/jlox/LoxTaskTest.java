@@ -0,0 +1,79 @@
+package com.ickoxii.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LoxTaskTest extends TestCase {
+  public LoxTaskTest(String testName) {
+    super(testName);
+  }
+
+  public void testJoinReturnsWhatTheTaskReturned() throws LoxException {
+    assertEquals("3\n", TestScripts.run(String.join("\n",
+        "var a = 1;",
+        "fun work() { return a + 2; }",
+        "print join(spawn(work));")));
+  }
+
+  public void testJoinReportsTheTaskError() {
+    assertEquals("Task failed: Operands must be numbers. [line 1]",
+        TestScripts.error("fun bad() { return nil - 1; }\njoin(spawn(bad));"));
+  }
+
+  public void testJoinReportsAnyFailure() {
+    LoxCallable broken = new LoxCallable() {
+      @Override
+      public int arity() { return 0; }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        throw new IllegalStateException("broken");
+      }
+    };
+    Interpreter interpreter =
+        new Interpreter(new PrintStream(new ByteArrayOutputStream(), true));
+    LoxTask task = new LoxTask(interpreter.fork(), broken);
+    task.run();
+
+    try {
+      task.join();
+      fail("Expected the failure to be reported.");
+    } catch (RuntimeError error) {
+      assertEquals("Task failed: Internal error: "
+          + "java.lang.IllegalStateException: broken", error.getMessage());
+    }
+  }
+
+  public void testHostCallWaitsForItsTasks() throws LoxException {
+    LoxContext context = TestScripts.context();
+    TestScripts.run(context, String.join("\n",
+        "fun work() {",
+        "  var i = 0;",
+        "  while (i < 100000) i = i + 1;",
+        "  print \"done\";",
+        "}",
+        "fun start() { spawn(work); }"));
+
+    StringWriter out = new StringWriter();
+    context.setOutput(out);
+    context.call("start");
+    assertEquals("done\n", out.toString());
+  }
+
+  public void testTasksShareTheStepLimit() {
+    LoxContext context = TestScripts.context();
+    context.setLimits(100_000, 0, null);
+    // Each task alone stays well under the limit; together they don't.
+    String error = TestScripts.error(context, String.join("\n",
+        "fun work() { var i = 0; while (i < 30000) i = i + 1; }",
+        "var tasks = list();",
+        "for (var t = 0; t < 8; t = t + 1) push(tasks, spawn(work));",
+        "for (var t = 0; t < 8; t = t + 1) join(get(tasks, t));"));
+
+    assertTrue(error, error.contains("Step limit exceeded."));
+  }
+}
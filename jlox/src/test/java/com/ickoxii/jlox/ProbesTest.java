@@ -0,0 +1,38 @@
+package com.ickoxii.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ProbesTest extends TestCase {
+  public ProbesTest(String testName) {
+    super(testName);
+  }
+
+  private static List<Stmt> compile(String source) {
+    return LoxEngine.compile(source, (line, where, message) ->
+        fail("[line " + line + "] Error" + where + ": " + message));
+  }
+
+  private static Interpreter interpreter() {
+    return new Interpreter(new PrintStream(new ByteArrayOutputStream(), true));
+  }
+
+  public void testOnlyTheOwnerFiresTheHook() {
+    Interpreter owner = interpreter();
+    Interpreter other = interpreter();
+    List<Integer> lines = new ArrayList<>();
+    Probes probes = new Probes(compile("var a = 1;\nprint a;"), owner,
+        stmt -> lines.add(stmt.line));
+    probes.install(line -> true);
+
+    other.interpret(probes.statements);
+    assertTrue(lines.isEmpty());
+
+    owner.interpret(probes.statements);
+    assertEquals(List.of(1, 2), lines);
+  }
+}
@@ -0,0 +1,100 @@
+package com.ickoxii.jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ScriptCacheTest extends TestCase {
+  private static final String SOURCE = String.join("\n",
+      "class Point { init(x) { this.x = x; } }",
+      "fun twice(p) { return p.x * 2; }",
+      "var i = 0;",
+      "while (i < 3) { print twice(Point(i)); i = i + 1; }");
+
+  private Path dir;
+  private Path cache;
+  private byte[] hash;
+  private byte[] image;
+
+  public ScriptCacheTest(String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("jlox-cache");
+    cache = dir.resolve("script.loxc");
+
+    byte[] source = SOURCE.getBytes(StandardCharsets.UTF_8);
+    List<Stmt> statements = LoxEngine.compile(SOURCE,
+        (line, where, message) -> fail(message));
+    hash = ScriptCache.hash(source);
+    ScriptCache.write(cache, hash, CompactAst.encode(statements));
+    image = Files.readAllBytes(cache);
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(cache);
+    Files.deleteIfExists(dir);
+  }
+
+  /**
+   * A damaged file must come back as a miss from readIfFresh and as an
+   * IOException from read, or as a program if the damage happens to
+   * leave a valid one, never as any other exception.
+   * */
+  private void assertRejected(byte[] damaged) {
+    try {
+      Files.write(cache, damaged);
+      ScriptCache.readIfFresh(cache, hash);
+    } catch (IOException | RuntimeException | OutOfMemoryError e) {
+      throw new AssertionError("readIfFresh threw " + e, e);
+    }
+
+    try {
+      ScriptCache.read(cache);
+    } catch (IOException e) {
+      // Expected.
+    } catch (RuntimeException | OutOfMemoryError e) {
+      throw new AssertionError("read threw " + e, e);
+    }
+  }
+
+  public void testReadsWhatWasWritten() throws IOException {
+    assertEquals(4, ScriptCache.readIfFresh(cache, hash).size());
+    assertEquals(4, ScriptCache.read(cache).size());
+  }
+
+  public void testTruncatedCacheIsAMiss() throws IOException {
+    Files.write(cache, Arrays.copyOf(image, image.length - 1));
+    assertNull(ScriptCache.readIfFresh(cache, hash));
+  }
+
+  public void testStaleCacheIsAMiss() {
+    byte[] other = ScriptCache.hash("print 1;".getBytes(StandardCharsets.UTF_8));
+    assertNull(ScriptCache.readIfFresh(cache, other));
+  }
+
+  public void testTruncatedCacheIsRejected() {
+    for (int length = 0; length < image.length; length++) {
+      assertRejected(Arrays.copyOf(image, length));
+    }
+  }
+
+  public void testCorruptCacheIsRejected() {
+    byte[] values = { 0, 1, (byte)0x7f, (byte)0x80, (byte)0xff };
+    for (int i = 0; i < image.length; i++) {
+      for (byte value : values) {
+        byte[] damaged = image.clone();
+        damaged[i] = value;
+        assertRejected(damaged);
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.ickoxii.jlox;
+
+import java.io.StringWriter;
+import java.time.Duration;
+
+import junit.framework.TestCase;
+
+public class TenantSchedulerTest extends TestCase {
+  private static final LoxEngine ENGINE = new LoxEngine();
+
+  public TenantSchedulerTest(String testName) {
+    super(testName);
+  }
+
+  private static void awaitDone(TenantScheduler.Tenant tenant)
+      throws Exception {
+    long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (!tenant.isDone()) {
+      assertTrue(tenant.getName() + " is stuck", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+    tenant.join();
+  }
+
+  // With one slot, every wait below would deadlock if the waiting
+  // thread kept the slot its tasks and workers queue for.
+  public void testBlockedTenantGivesUpItsSlot() throws Exception {
+    TenantScheduler scheduler = new TenantScheduler(1, Duration.ofMillis(1));
+    StringWriter out = new StringWriter();
+    TenantScheduler.Tenant waiting = scheduler.submit("waiting",
+        TenantScheduler.NORM_PRIORITY, ENGINE.compile(String.join("\n",
+            "var c = channel(1);",
+            "fun twice() { return receive(c) * 2; }",
+            "var t = spawn(twice);",
+            "send(c, 21);",
+            "print join(t);",
+            "var l = list();",
+            "for (var i = 0; i < 100; i = i + 1) push(l, i);",
+            "fun add(a, b) { return a + b; }",
+            "print parallelReduce(l, add, 0);",
+            "fun last() { print \"last\"; }",
+            "spawn(last);")),
+        ENGINE.createContext(out));
+    StringWriter otherOut = new StringWriter();
+    TenantScheduler.Tenant other = scheduler.submit("other",
+        TenantScheduler.NORM_PRIORITY, ENGINE.compile("print \"ok\";"),
+        ENGINE.createContext(otherOut));
+
+    awaitDone(waiting);
+    awaitDone(other);
+    assertEquals("42\n4950\nlast\n", out.toString());
+    assertEquals("ok\n", otherOut.toString());
+  }
+}
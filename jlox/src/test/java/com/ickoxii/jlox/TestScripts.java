@@ -0,0 +1,48 @@
+package com.ickoxii.jlox;
+
+import java.io.StringWriter;
+
+import junit.framework.Assert;
+
+/**
+ * Runs Lox source in a fresh context and hands back what it printed,
+ * for tests that check behavior from the script's side.
+ * */
+final class TestScripts {
+  private static final LoxEngine ENGINE = new LoxEngine();
+
+  private TestScripts() {}
+
+  static LoxContext context() {
+    return ENGINE.createContext();
+  }
+
+  static String run(String source) throws LoxException {
+    return run(context(), source);
+  }
+
+  static String run(LoxContext context, String source) throws LoxException {
+    StringWriter out = new StringWriter();
+    context.setOutput(out);
+    ENGINE.compile(source).execute(context);
+    return out.toString();
+  }
+
+  /**
+   * The runtime error a script fails with, without its line.
+   * */
+  static String error(String source) {
+    return error(context(), source);
+  }
+
+  static String error(LoxContext context, String source) {
+    try {
+      run(context, source);
+    } catch (LoxException e) {
+      Assert.assertTrue(e.getMessage(), e.isRuntimeError());
+      return e.getErrors().get(0).split("\n")[0];
+    }
+    Assert.fail("Expected a runtime error.");
+    return null;
+  }
+}
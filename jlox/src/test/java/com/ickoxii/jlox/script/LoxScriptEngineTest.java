@@ -0,0 +1,71 @@
+package com.ickoxii.jlox.script;
+
+import java.io.StringWriter;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+
+import junit.framework.TestCase;
+
+public class LoxScriptEngineTest extends TestCase {
+  private ScriptEngine engine;
+
+  public LoxScriptEngineTest(String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() {
+    engine = new LoxScriptEngineFactory().getScriptEngine();
+  }
+
+  public void testCopiesBackOnlyWhatTheScriptDefined() throws ScriptException {
+    Bindings bindings = new SimpleBindings();
+    bindings.put("x", 2);
+    engine.eval("var y = x * 3; fun f() { return y; }", bindings);
+
+    assertEquals(6.0, bindings.get("y"));
+    assertTrue(bindings.containsKey("f"));
+    assertFalse(bindings.containsKey("clock"));
+    assertFalse(bindings.containsKey("push"));
+    assertEquals(3, bindings.size());
+  }
+
+  public void testReadsGlobalScope() throws ScriptException {
+    StringWriter out = new StringWriter();
+    ScriptContext context = new SimpleScriptContext();
+    context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+    context.setBindings(new SimpleBindings(), ScriptContext.GLOBAL_SCOPE);
+    context.setWriter(out);
+    context.getBindings(ScriptContext.GLOBAL_SCOPE).put("greeting", "hi");
+
+    engine.eval("print greeting;", context);
+    assertEquals("hi\n", out.toString());
+
+    // Engine scope wins over the global scope.
+    engine.eval("var greeting = \"mine\"; print greeting;", context);
+    assertEquals("hi\nmine\n", out.toString());
+  }
+
+  public void testOutputStatementPrintsTextAsIs() throws ScriptException {
+    StringWriter out = new StringWriter();
+    engine.getContext().setWriter(out);
+
+    String text = "say hi to C:\\temp\\";
+    engine.eval(engine.getFactory().getOutputStatement(text));
+    assertEquals(text + "\n", out.toString());
+  }
+
+  public void testOutputStatementRejectsQuotes() {
+    try {
+      engine.getFactory().getOutputStatement("say \"hi\"");
+      fail("Expected the quotes to be rejected.");
+    } catch (IllegalArgumentException expected) {
+      // Lox strings have no escapes.
+    }
+  }
+}